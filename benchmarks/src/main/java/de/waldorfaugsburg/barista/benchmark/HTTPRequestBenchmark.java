@@ -0,0 +1,108 @@
+package de.waldorfaugsburg.barista.benchmark;
+
+import com.google.gson.Gson;
+import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.http.HTTPServer;
+import de.waldorfaugsburg.barista.http.PlayRequest;
+import de.waldorfaugsburg.barista.sound.Sound;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Startup and round trips of the control API over a kept-alive connection, plus decoding of the POST /play body
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HTTPRequestBenchmark {
+
+    private static final String CONFIGURATION = """
+            {
+              "serviceChipId": "SERVICE",
+              "mensaMax": {"kiosk": "BENCHMARK"},
+              "mdb": {"startMoney": 100, "timeoutMillis": 10000},
+              "http": {"port": 18081},
+              "products": {"1": 4000000001},
+              "sounds": {},
+              "sound": {"enabled": false},
+              "journal": {"enabled": false},
+              "simulation": {"enabled": true}
+            }
+            """;
+
+    private final Gson gson = new Gson();
+    private final byte[] body = "{\"sound\":\"whistle\"}".getBytes(StandardCharsets.UTF_8);
+
+    private BaristaApplication application;
+    private BaristaConfiguration configuration;
+    private HttpClient client;
+    private HttpRequest statusRequest;
+    private HttpRequest metricsRequest;
+    private HttpRequest playRequest;
+
+    @Setup
+    public void setup() throws Exception {
+        configuration = gson.fromJson(CONFIGURATION, BaristaConfiguration.class);
+        application = new BaristaApplication();
+        application.enable(configuration);
+
+        final URI uri = URI.create("http://localhost:" + configuration.getHttp().getPort());
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        statusRequest = HttpRequest.newBuilder(uri.resolve("/")).build();
+        metricsRequest = HttpRequest.newBuilder(uri.resolve("/metrics")).build();
+        playRequest = HttpRequest.newBuilder(uri.resolve("/play"))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        application.disable();
+    }
+
+    @Benchmark
+    public Sound decodePlayRequest() {
+        final Reader reader = new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8);
+        return Sound.findByName(gson.fromJson(reader, PlayRequest.class).sound());
+    }
+
+    @Benchmark
+    public int status() throws Exception {
+        return client.send(statusRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public int metrics() throws Exception {
+        return client.send(metricsRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public int play() throws Exception {
+        return client.send(playRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    // Time until a second server on an ephemeral port accepts connections
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public int startup() throws Exception {
+        final BaristaConfiguration.HTTPServerConfiguration httpConfiguration =
+                gson.fromJson("{\"port\": 0}", BaristaConfiguration.HTTPServerConfiguration.class);
+        try (final HTTPServer server = new HTTPServer(application, httpConfiguration)) {
+            return server.getPort();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.waldorfaugsburg.barista.benchmark;
+
+import de.waldorfaugsburg.barista.mdb.MDBEventListener;
+import de.waldorfaugsburg.barista.mdb.MDBFrameParser;
+import de.waldorfaugsburg.barista.mdb.MDBStatus;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MDBFrameParserBenchmark {
+
+    private static final String VEND_FRAME = "c,STATUS,VEND,1.50,12\n";
+
+    private final byte[] vendFrame = VEND_FRAME.getBytes(StandardCharsets.US_ASCII);
+    private final byte[] vendFrameHead = "c,STATUS,VE".getBytes(StandardCharsets.US_ASCII);
+    private final byte[] vendFrameTail = "ND,1.50,12\n".getBytes(StandardCharsets.US_ASCII);
+
+    private Blackhole blackhole;
+    private MDBFrameParser parser;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.parser = new MDBFrameParser(new MDBEventListener() {
+            @Override
+            public void onVend(final int productId, final double money) {
+                MDBFrameParserBenchmark.this.blackhole.consume(productId);
+                MDBFrameParserBenchmark.this.blackhole.consume(money);
+            }
+
+            @Override
+            public void onStatus(final MDBStatus status) {
+                MDBFrameParserBenchmark.this.blackhole.consume(status);
+            }
+
+            @Override
+            public void onVersion(final String version) {
+                MDBFrameParserBenchmark.this.blackhole.consume(version);
+            }
+
+            @Override
+            public void onRejected(final String error) {
+                MDBFrameParserBenchmark.this.blackhole.consume(error);
+            }
+
+            @Override
+            public void onError(final String error) {
+                MDBFrameParserBenchmark.this.blackhole.consume(error);
+            }
+        });
+    }
+
+    @Benchmark
+    public void parser() {
+        parser.feed(vendFrame);
+    }
+
+    @Benchmark
+    public void parserSplitFrame() {
+        parser.feed(vendFrameHead);
+        parser.feed(vendFrameTail);
+    }
+
+    // Previous path of MDBInterface: decode the event as string, split it and parse the fields
+    @Benchmark
+    public void split(final Blackhole blackhole) {
+        final String data = new String(vendFrame, StandardCharsets.US_ASCII);
+        final String[] parsedData = data.split(",");
+        if (parsedData[0].equals("c") && parsedData[1].equals("STATUS") && parsedData[2].equals("VEND")) {
+            blackhole.consume(Double.parseDouble(parsedData[3].trim()));
+            blackhole.consume(Integer.parseInt(parsedData[4].trim()));
+        }
+    }
+}
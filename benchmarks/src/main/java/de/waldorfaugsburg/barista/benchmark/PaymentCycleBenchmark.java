@@ -0,0 +1,64 @@
+package de.waldorfaugsburg.barista.benchmark;
+
+import com.google.gson.Gson;
+import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.metrics.Metrics;
+import de.waldorfaugsburg.barista.metrics.Outcome;
+import de.waldorfaugsburg.barista.simulation.SimulatedChipSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Full vend cycle from chip scan to confirmed payment against the in-memory simulators
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaymentCycleBenchmark {
+
+    private static final String CONFIGURATION = """
+            {
+              "serviceChipId": "SERVICE",
+              "mensaMax": {"kiosk": "BENCHMARK"},
+              "mdb": {"startMoney": 100, "timeoutMillis": 10000},
+              "http": {"port": 18080},
+              "products": {"1": 4000000001, "2": 4000000002},
+              "sounds": {},
+              "chipCache": {"ttlMillis": 1},
+              "sound": {"enabled": false},
+              "deduplication": {"pupilWindowMillis": 0, "serviceWindowMillis": 0},
+              "simulation": {"enabled": true, "selectionDelayMillis": 0, "transactionLatencyMillis": 0, "transactionLatencyJitterMillis": 0}
+            }
+            """;
+
+    private BaristaApplication application;
+    private SimulatedChipSource chipSource;
+    private Metrics metrics;
+    private long completed;
+
+    @Setup
+    public void setup() throws Exception {
+        application = new BaristaApplication();
+        application.enable(new Gson().fromJson(CONFIGURATION, BaristaConfiguration.class));
+        chipSource = (SimulatedChipSource) application.getLanes().get(0).getChipSource();
+        metrics = application.getLanes().get(0).getMetrics();
+        completed = metrics.getCount(Outcome.SUCCESS);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        application.disable();
+    }
+
+    @Benchmark
+    public void vend() {
+        chipSource.offer("CHIP");
+        completed++;
+        while (metrics.getCount(Outcome.SUCCESS) < completed) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.waldorfaugsburg.barista.benchmark;
+
+import com.google.gson.Gson;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.configuration.ProductTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProductLookupBenchmark {
+
+    private BaristaConfiguration configuration;
+    private ProductTable table;
+    private int productId;
+
+    @Setup
+    public void setup() {
+        final StringBuilder products = new StringBuilder();
+        for (int i = 1; i <= 40; i++) {
+            if (i > 1) products.append(',');
+            products.append('"').append(i).append("\":").append(4_000_000_000L + i);
+        }
+        configuration = new Gson().fromJson("{\"products\":{" + products + "}}", BaristaConfiguration.class);
+        table = new ProductTable(configuration.getProducts());
+        productId = 23;
+    }
+
+    // Boxed lookup in the map parsed by Gson
+    @Benchmark
+    public Long lookup() {
+        return configuration.getProducts().get(productId);
+    }
+
+    // Lookup in the table of the configuration snapshot used while vending
+    @Benchmark
+    public long lookupTable() {
+        return table.get(productId);
+    }
+}
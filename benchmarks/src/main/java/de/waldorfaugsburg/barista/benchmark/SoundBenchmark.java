@@ -0,0 +1,28 @@
+package de.waldorfaugsburg.barista.benchmark;
+
+import de.waldorfaugsburg.barista.sound.Sound;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SoundBenchmark {
+
+    private String knownSound = "unknown_error";
+    private String unknownSound = "NOT_A_SOUND";
+
+    @Benchmark
+    public Sound findByName() {
+        return Sound.findByName(knownSound);
+    }
+
+    @Benchmark
+    public Sound findByNameMiss() {
+        return Sound.findByName(unknownSound);
+    }
+}
@@ -1,73 +1,315 @@
 package de.waldorfaugsburg.barista;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonReader;
+import de.waldorfaugsburg.barista.accounting.AccountingExporter;
 import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.configuration.ConfigurationSnapshot;
+import de.waldorfaugsburg.barista.configuration.ConfigurationWatcher;
+import de.waldorfaugsburg.barista.event.EventRing;
 import de.waldorfaugsburg.barista.http.HTTPServer;
-import de.waldorfaugsburg.barista.mdb.MDBInterface;
-import de.waldorfaugsburg.barista.payment.PaymentProcessor;
+import de.waldorfaugsburg.barista.journal.VendJournal;
+import de.waldorfaugsburg.barista.lane.Lane;
+import de.waldorfaugsburg.barista.mensamax.CircuitBreakerMensaMaxGateway;
+import de.waldorfaugsburg.barista.mensamax.ClientMensaMaxGateway;
+import de.waldorfaugsburg.barista.mensamax.MensaMaxGateway;
+import de.waldorfaugsburg.barista.payment.ChipAccountCache;
+import de.waldorfaugsburg.barista.payment.TransactionQueue;
+import de.waldorfaugsburg.barista.sales.SalesStore;
+import de.waldorfaugsburg.barista.stock.StockTable;
 import de.waldorfaugsburg.barista.sound.SoundPlayer;
-import de.waldorfaugsburg.mensamax.client.MensaMaxChipReader;
-import de.waldorfaugsburg.mensamax.client.MensaMaxClient;
+import de.waldorfaugsburg.barista.simulation.SimulatedMensaMaxGateway;
+import de.waldorfaugsburg.barista.startup.StartupGraph;
+import de.waldorfaugsburg.barista.telemetry.TelemetrySampler;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
 import java.io.FileReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 public final class BaristaApplication {
 
     private BaristaConfiguration configuration;
+    private Path configurationPath;
+    // Replaced as a whole on every reload, readers never see a partially applied configuration
+    private final AtomicReference<ConfigurationSnapshot> snapshot = new AtomicReference<>();
+    private volatile String reloadError;
+    private EventRing eventRing;
+    private volatile StartupGraph startupGraph;
 
-    private MensaMaxChipReader chipReader;
-    private MensaMaxClient mensaMaxClient;
-    private MDBInterface mdbInterface;
-    private SoundPlayer soundPlayer;
-    private PaymentProcessor paymentProcessor;
-    private HTTPServer httpServer;
+    // Assigned by the startup threads, lanes are listed in the order they start accepting chips
+    private volatile MensaMaxGateway mensaMax;
+    private volatile CircuitBreakerMensaMaxGateway circuitBreaker;
+    private volatile ChipAccountCache chipAccountCache;
+    private volatile TransactionQueue transactionQueue;
+    private volatile VendJournal vendJournal;
+    private volatile SoundPlayer soundPlayer;
+    private volatile SalesStore salesStore;
+    private volatile StockTable stockTable;
+    private volatile AccountingExporter accountingExporter;
+    private final List<Lane> lanes = new CopyOnWriteArrayList<>();
+    private final List<Lane> openedLanes = new ArrayList<>();
+    private volatile TelemetrySampler telemetrySampler;
+    private volatile HTTPServer httpServer;
+    private volatile ConfigurationWatcher configurationWatcher;
 
     public void enable() throws Exception {
-        try (final JsonReader reader = new JsonReader(new FileReader("config.json"))) {
-            configuration = new Gson().fromJson(reader, BaristaConfiguration.class);
+        enable(Path.of("config.json"));
+    }
+
+    public void enable(final Path configurationPath) throws Exception {
+        this.configurationPath = configurationPath;
+        enable(loadConfiguration(configurationPath.toString()));
+    }
+
+    public void enable(final BaristaConfiguration configuration) throws Exception {
+        this.configuration = configuration;
+        this.snapshot.set(ConfigurationSnapshot.create(1, configuration));
+        this.eventRing = new EventRing(configuration.getEvents().getCapacity());
+        this.startupGraph = new StartupGraph();
+
+        // The http server comes first so that the startup progress can be followed on /health/ready
+        startupGraph.add("http", List.of(), () -> httpServer = new HTTPServer(this, configuration.getHttp()));
+        startupGraph.add("telemetry", List.of(), () -> telemetrySampler = new TelemetrySampler(configuration.getTelemetry()));
+        startupGraph.add("mensaMax", List.of(), () -> {
+            MensaMaxGateway gateway;
+            if (configuration.getSimulation().isEnabled()) {
+                log.warn("Simulation enabled, no hardware and no MensaMax backend will be used");
+                gateway = new SimulatedMensaMaxGateway(configuration.getSimulation());
+            } else {
+                gateway = new ClientMensaMaxGateway(configuration.getMensaMax().getEndpoint(), configuration.getMensaMax().getApiKey());
+            }
+            if (configuration.getCircuitBreaker().isEnabled()) {
+                circuitBreaker = new CircuitBreakerMensaMaxGateway(gateway, configuration.getCircuitBreaker());
+                gateway = circuitBreaker;
+            }
+            mensaMax = gateway;
+        });
+        startupGraph.add("chipCache", List.of(), () -> chipAccountCache = new ChipAccountCache(configuration.getChipCache()));
+        startupGraph.add("sound", List.of(), () -> soundPlayer = new SoundPlayer(configuration.getSound(), eventRing));
+        if (configurationPath != null && configuration.getReload().isEnabled()) {
+            startupGraph.add("reload", List.of(), () -> configurationWatcher = new ConfigurationWatcher(configurationPath,
+                    configuration.getReload().getDebounceMillis(), this::reloadConfiguration));
+        }
+
+        startupGraph.add("sales", List.of(), () -> salesStore = new SalesStore(this, configuration.getSales()));
+
+        final List<String> paymentDependencies = new ArrayList<>(List.of("mensaMax", "chipCache", "sound", "sales"));
+        if (configuration.getSettlement().isEnabled()) {
+            startupGraph.add("settlement", List.of("mensaMax", "chipCache"), () -> transactionQueue = new TransactionQueue(this));
+            paymentDependencies.add("settlement");
+        }
+        if (configuration.getStock().isEnabled()) {
+            startupGraph.add("stock", List.of(), () -> stockTable = new StockTable(configuration.getStock()));
+            paymentDependencies.add("stock");
+        }
+        if (configuration.getAccounting().isEnabled()) {
+            startupGraph.add("accounting", List.of(), () -> accountingExporter = new AccountingExporter(configuration.getAccounting()));
+            paymentDependencies.add("accounting");
         }
+        if (configuration.getJournal().isEnabled()) {
+            startupGraph.add("journal", List.of(), () -> vendJournal = new VendJournal(configuration.getJournal()));
+            paymentDependencies.add("journal");
+        }
+
+        // The MDB handshakes of all lanes run alongside the shared services
+        for (final BaristaConfiguration.LaneConfiguration laneConfiguration : configuration.getLanes()) {
+            final Lane lane = new Lane(this, laneConfiguration);
+            final String mdbName = "mdb:" + lane.getName();
+            startupGraph.add(mdbName, List.of(), lane::open);
 
-        chipReader = new MensaMaxChipReader(configuration.getChipReader().getPath());
-        mensaMaxClient = new MensaMaxClient(configuration.getMensaMax().getEndpoint(), configuration.getMensaMax().getApiKey());
-        mdbInterface = new MDBInterface(this);
-        soundPlayer = new SoundPlayer();
-        paymentProcessor = new PaymentProcessor(this);
-        httpServer = new HTTPServer(this, configuration.getHttp().getPort());
+            final List<String> dependencies = new ArrayList<>(paymentDependencies);
+            dependencies.add(mdbName);
+            startupGraph.add("payment:" + lane.getName(), dependencies, () -> {
+                salesStore.restore(lane);
+                lane.start();
+                lanes.add(lane);
+            });
+            openedLanes.add(lane);
+        }
+
+        startupGraph.await();
+        log.info("Application enabled");
     }
 
     public void disable() throws Exception {
-        chipReader.close();
-        mdbInterface.close();
-        paymentProcessor.close();
-        httpServer.close();
+        if (configurationWatcher != null) {
+            configurationWatcher.close();
+        }
+        for (final Lane lane : openedLanes) {
+            lane.close();
+        }
+        if (httpServer != null) {
+            httpServer.close();
+        }
+        if (salesStore != null) {
+            salesStore.close();
+        }
+        if (stockTable != null) {
+            stockTable.close();
+        }
+        if (accountingExporter != null) {
+            accountingExporter.close();
+        }
+        if (soundPlayer != null) {
+            soundPlayer.close();
+        }
+        if (telemetrySampler != null) {
+            telemetrySampler.close();
+        }
+        if (transactionQueue != null) {
+            transactionQueue.close();
+        }
+        if (vendJournal != null) {
+            vendJournal.close();
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.close();
+        }
+    }
+
+    // Applies products, sounds, kiosks, the service chip and the MDB settings of the changed configuration file,
+    // the previous snapshot stays active if the file can't be parsed or is invalid
+    public synchronized void reloadConfiguration() {
+        final ConfigurationSnapshot current = snapshot.get();
+        final ConfigurationSnapshot next;
+        final BaristaConfiguration reloaded;
+        try {
+            reloaded = loadConfiguration(configurationPath.toString());
+            if (reloaded == null) throw new IllegalArgumentException("Configuration is empty");
+
+            next = ConfigurationSnapshot.create(current.getVersion() + 1, reloaded);
+            if (!next.getLaneNames().equals(current.getLaneNames())) {
+                throw new IllegalArgumentException("Lanes can't be added or removed without a restart");
+            }
+        } catch (final Exception e) {
+            reloadError = e.getMessage();
+            log.error("Keeping configuration version {}, reloaded configuration is invalid", current.getVersion(), e);
+            return;
+        }
+
+        if (!withoutReloadableSettings(reloaded).equals(withoutReloadableSettings(configuration))) {
+            log.warn("Configuration contains changes which are only applied after a restart");
+        }
+        snapshot.set(next);
+        reloadError = null;
+        log.info("Configuration version {} applied", next.getVersion());
     }
 
+    // Null until enable was called
+    public StartupGraph getStartupGraph() {
+        return startupGraph;
+    }
+
+    public boolean isReady() {
+        final StartupGraph graph = startupGraph;
+        return graph != null && graph.isReady();
+    }
+
+    // Settings as they were when the application was enabled, reloadable ones are read from the snapshot
     public BaristaConfiguration getConfiguration() {
         return configuration;
     }
 
-    public MensaMaxChipReader getChipReader() {
-        return chipReader;
+    public ConfigurationSnapshot getSnapshot() {
+        return snapshot.get();
     }
 
-    public MensaMaxClient getMensaMaxClient() {
-        return mensaMaxClient;
+    // Message of the last failed reload, null if the current file was applied
+    public String getReloadError() {
+        return reloadError;
     }
 
-    public MDBInterface getMdbInterface() {
-        return mdbInterface;
+    public EventRing getEventRing() {
+        return eventRing;
+    }
+
+    public MensaMaxGateway getMensaMax() {
+        return mensaMax;
+    }
+
+    public CircuitBreakerMensaMaxGateway getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public ChipAccountCache getChipAccountCache() {
+        return chipAccountCache;
+    }
+
+    public TransactionQueue getTransactionQueue() {
+        return transactionQueue;
+    }
+
+    public VendJournal getVendJournal() {
+        return vendJournal;
     }
 
     public SoundPlayer getSoundPlayer() {
         return soundPlayer;
     }
 
-    public PaymentProcessor getPaymentProcessor() {
-        return paymentProcessor;
+    public SalesStore getSalesStore() {
+        return salesStore;
+    }
+
+    // Null if the accounting export is disabled
+    public AccountingExporter getAccountingExporter() {
+        return accountingExporter;
+    }
+
+    // Null if stock tracking is disabled
+    public StockTable getStockTable() {
+        return stockTable;
+    }
+
+    public List<Lane> getLanes() {
+        return lanes;
+    }
+
+    public Lane getLane(final String name) {
+        for (final Lane lane : lanes) {
+            if (lane.getName().equalsIgnoreCase(name))
+                return lane;
+        }
+        return null;
+    }
+
+    public TelemetrySampler getTelemetrySampler() {
+        return telemetrySampler;
+    }
+
+    public static BaristaConfiguration loadConfiguration(final String path) throws Exception {
+        try (final JsonReader reader = new JsonReader(new FileReader(path))) {
+            return new Gson().fromJson(reader, BaristaConfiguration.class);
+        }
+    }
+
+    private static JsonElement withoutReloadableSettings(final BaristaConfiguration configuration) {
+        final JsonObject tree = new Gson().toJsonTree(configuration).getAsJsonObject();
+        tree.remove("serviceChipId");
+        if (tree.has("mdb")) {
+            tree.getAsJsonObject("mdb").remove("startMoney");
+            tree.getAsJsonObject("mdb").remove("timeoutMillis");
+        }
+        tree.remove("products");
+        tree.remove("sounds");
+        if (tree.has("mensaMax")) {
+            tree.getAsJsonObject("mensaMax").remove("kiosk");
+        }
+        if (tree.has("lanes")) {
+            for (final JsonElement lane : tree.getAsJsonArray("lanes")) {
+                lane.getAsJsonObject().remove("kiosk");
+                lane.getAsJsonObject().remove("products");
+            }
+        }
+        return tree;
     }
 
     public static void main(final String[] args) {
@@ -0,0 +1,10 @@
+package de.waldorfaugsburg.barista.accounting;
+
+// A vend which was dispensed without a MensaMax booking, chip id is null in free-mode
+public record AccountedVend(long timestamp, String lane, Type type, String chipId, int productId, long barcode, double money) {
+
+    public enum Type {
+        FREE,
+        SERVICE
+    }
+}
@@ -0,0 +1,181 @@
+package de.waldorfaugsburg.barista.accounting;
+
+import com.google.gson.Gson;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Buffers free-mode and service vends and appends them in batches to one export file per day
+@Slf4j
+public final class AccountingExporter implements AutoCloseable {
+
+    private static final String CSV_HEADER = "timestamp,lane,type,chipId,productId,barcode,money\n";
+
+    private final BaristaConfiguration.AccountingConfiguration configuration;
+    private final Path directory;
+    private final Gson gson = new Gson();
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final BlockingQueue<AccountedVend> buffer;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "accounting-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Vends not yet written are retried before anything new is taken from the buffer, only accessed by the scheduler
+    private final List<AccountedVend> batch = new ArrayList<>();
+
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public AccountingExporter(final BaristaConfiguration.AccountingConfiguration configuration) throws IOException {
+        this.configuration = configuration;
+        this.directory = Path.of(configuration.getDirectory());
+        this.buffer = new ArrayBlockingQueue<>(configuration.getBufferCapacity());
+        Files.createDirectories(directory);
+
+        final long interval = configuration.getFlushMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    // Never blocks the vend, a full batch is written right away instead of waiting for the interval
+    public void record(final AccountedVend vend) {
+        if (!buffer.offer(vend)) {
+            dropped.increment();
+            log.error("Accounting buffer is full, dropped {} vend of product '{}' on lane '{}'", vend.type(), vend.productId(), vend.lane());
+            return;
+        }
+        if (buffer.size() >= configuration.getBatchSize() && flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (final RuntimeException e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(buffer.size(), exported.sum(), dropped.sum());
+    }
+
+    private synchronized void flush() {
+        flushScheduled.set(false);
+        while (true) {
+            if (batch.isEmpty() && buffer.drainTo(batch, configuration.getBatchSize()) == 0) return;
+
+            try {
+                write();
+            } catch (final IOException e) {
+                log.error("An error occurred while exporting {} vend(s), retrying with the next flush", batch.size(), e);
+                return;
+            }
+        }
+    }
+
+    // A batch spanning midnight is split over the files of both days, each day leaves the batch once it was written
+    private void write() throws IOException {
+        while (!batch.isEmpty()) {
+            final LocalDate date = toDate(batch.get(0).timestamp());
+            int to = 1;
+            while (to < batch.size() && toDate(batch.get(to).timestamp()).equals(date)) {
+                to++;
+            }
+
+            final List<AccountedVend> vends = batch.subList(0, to);
+            append(date, vends);
+            exported.add(vends.size());
+            log.debug("Exported {} vend(s) for accounting", vends.size());
+            vends.clear();
+        }
+    }
+
+    // The file is replaced as a whole, a failed write leaves it as it was instead of ending with partial lines
+    private void append(final LocalDate date, final List<AccountedVend> vends) throws IOException {
+        final boolean csv = configuration.getFormat() == ExportFormat.CSV;
+        final Path path = directory.resolve("vends-" + date + (csv ? ".csv" : ".jsonl"));
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+        final StringBuilder builder = new StringBuilder();
+        if (Files.exists(path)) {
+            Files.copy(path, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(temporaryPath);
+            if (csv) {
+                builder.append(CSV_HEADER);
+            }
+        }
+        for (final AccountedVend vend : vends) {
+            if (csv) {
+                appendCsv(builder, vend);
+            } else {
+                builder.append(gson.toJson(vend)).append('\n');
+            }
+        }
+
+        try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final ByteBuffer data = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private LocalDate toDate(final long timestamp) {
+        return Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+    }
+
+    private static void appendCsv(final StringBuilder builder, final AccountedVend vend) {
+        builder.append(Instant.ofEpochMilli(vend.timestamp())).append(',');
+        appendCsvField(builder, vend.lane());
+        builder.append(',').append(vend.type()).append(',');
+        appendCsvField(builder, vend.chipId());
+        builder.append(',').append(vend.productId())
+                .append(',').append(vend.barcode())
+                .append(',').append(vend.money()).append('\n');
+    }
+
+    private static void appendCsvField(final StringBuilder builder, final String value) {
+        if (value == null) return;
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            builder.append(value);
+        } else {
+            builder.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    public record Statistics(int buffered, long exported, long dropped) {
+    }
+}
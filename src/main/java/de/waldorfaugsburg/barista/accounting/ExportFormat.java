@@ -0,0 +1,9 @@
+package de.waldorfaugsburg.barista.accounting;
+
+public enum ExportFormat {
+
+    // One comma separated line per vend with a header line per file
+    CSV,
+    // One JSON object per line
+    JSON
+}
@@ -0,0 +1,75 @@
+package de.waldorfaugsburg.barista.chip;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Suppresses repeated scans of a chip held on the reader or tapped twice, only used by the chip thread of one lane
+public final class ChipDeduplicator {
+
+    private final long pupilWindowNanos;
+    private final long serviceWindowNanos;
+
+    // Ring of recently seen chips, the oldest entry is overwritten once it is full
+    private final String[] chipIds;
+    private final int[] hashes;
+    private final long[] seenNanos;
+    private int next;
+
+    private final LongAdder suppressedPupilScans = new LongAdder();
+    private final LongAdder suppressedServiceScans = new LongAdder();
+
+    public ChipDeduplicator(final int capacity, final long pupilWindowMillis, final long serviceWindowMillis) {
+        this.pupilWindowNanos = TimeUnit.MILLISECONDS.toNanos(pupilWindowMillis);
+        this.serviceWindowNanos = TimeUnit.MILLISECONDS.toNanos(serviceWindowMillis);
+        this.chipIds = new String[capacity];
+        this.hashes = new int[capacity];
+        this.seenNanos = new long[capacity];
+    }
+
+    // False if the chip was seen within its window, every scan extends the window so a held chip stays suppressed
+    public boolean accept(final String chipId, final boolean serviceChip) {
+        final long now = System.nanoTime();
+        final int index = find(chipId);
+        if (index < 0) {
+            insert(chipId, now);
+            return true;
+        }
+
+        final boolean duplicate = now - seenNanos[index] < (serviceChip ? serviceWindowNanos : pupilWindowNanos);
+        seenNanos[index] = now;
+        if (duplicate) {
+            (serviceChip ? suppressedServiceScans : suppressedPupilScans).increment();
+        }
+        return !duplicate;
+    }
+
+    // Restarts the window once the payment of the chip is over, scans queued by the reader meanwhile are suppressed
+    public void touch(final String chipId) {
+        final int index = find(chipId);
+        if (index >= 0) {
+            seenNanos[index] = System.nanoTime();
+        }
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(suppressedPupilScans.sum(), suppressedServiceScans.sum());
+    }
+
+    private int find(final String chipId) {
+        final int hash = chipId.hashCode();
+        for (int i = 0; i < chipIds.length; i++) {
+            if (hashes[i] == hash && chipId.equals(chipIds[i])) return i;
+        }
+        return -1;
+    }
+
+    private void insert(final String chipId, final long now) {
+        chipIds[next] = chipId;
+        hashes[next] = chipId.hashCode();
+        seenNanos[next] = now;
+        next = (next + 1) % chipIds.length;
+    }
+
+    public record Statistics(long suppressedPupilScans, long suppressedServiceScans) {
+    }
+}
@@ -0,0 +1,6 @@
+package de.waldorfaugsburg.barista.chip;
+
+public interface ChipSource extends AutoCloseable {
+
+    String awaitChip() throws InterruptedException;
+}
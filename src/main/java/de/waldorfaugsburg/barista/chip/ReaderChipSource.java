@@ -0,0 +1,22 @@
+package de.waldorfaugsburg.barista.chip;
+
+import de.waldorfaugsburg.mensamax.client.MensaMaxChipReader;
+
+public final class ReaderChipSource implements ChipSource {
+
+    private final MensaMaxChipReader chipReader;
+
+    public ReaderChipSource(final String path) {
+        this.chipReader = new MensaMaxChipReader(path);
+    }
+
+    @Override
+    public String awaitChip() throws InterruptedException {
+        return chipReader.awaitChip();
+    }
+
+    @Override
+    public void close() throws Exception {
+        chipReader.close();
+    }
+}
@@ -1,9 +1,13 @@
 package de.waldorfaugsburg.barista.configuration;
 
+import de.waldorfaugsburg.barista.accounting.ExportFormat;
+import de.waldorfaugsburg.barista.mensamax.FastFailPolicy;
 import de.waldorfaugsburg.barista.sound.Sound;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
 import java.util.Map;
 
 @NoArgsConstructor
@@ -15,8 +19,30 @@ public final class BaristaConfiguration {
     private ChipReaderConfiguration chipReader;
     private MDBConfiguration mdb;
     private HTTPServerConfiguration http;
+    private SettlementConfiguration settlement = new SettlementConfiguration();
+    private CircuitBreakerConfiguration circuitBreaker = new CircuitBreakerConfiguration();
+    private JournalConfiguration journal = new JournalConfiguration();
+    private EventsConfiguration events = new EventsConfiguration();
+    private ChipCacheConfiguration chipCache = new ChipCacheConfiguration();
+    private DeduplicationConfiguration deduplication = new DeduplicationConfiguration();
+    private SalesConfiguration sales = new SalesConfiguration();
+    private StockConfiguration stock = new StockConfiguration();
+    private AccountingConfiguration accounting = new AccountingConfiguration();
+    private SoundConfiguration sound = new SoundConfiguration();
+    private TelemetryConfiguration telemetry = new TelemetryConfiguration();
+    private SimulationConfiguration simulation = new SimulationConfiguration();
+    private ReloadConfiguration reload = new ReloadConfiguration();
     private Map<Integer, Long> products;
     private Map<String, Sound> sounds;
+    private List<LaneConfiguration> lanes;
+
+    // Without explicit lanes the top-level chip reader, kiosk and products describe a single machine
+    public List<LaneConfiguration> getLanes() {
+        if (lanes == null || lanes.isEmpty()) {
+            return List.of(new LaneConfiguration("default", null, chipReader == null ? null : chipReader.getPath(), null, null));
+        }
+        return lanes;
+    }
 
     @NoArgsConstructor
     @Getter
@@ -32,16 +58,164 @@ public final class BaristaConfiguration {
         private String path;
     }
 
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Getter
+    public static final class LaneConfiguration {
+        private String name;
+        private String serialDevice;
+        private String chipReaderPath;
+        private String kiosk;
+        private Map<Integer, Long> products;
+    }
+
     @NoArgsConstructor
     @Getter
     public static final class MDBConfiguration {
         private int startMoney;
         private long timeoutMillis;
+        private long commandTimeoutMillis = 1_000;
+        private int commandRetries = 2;
+        private int commandBatchSize = 8;
+        private long probeIntervalMillis = 10_000;
+        private long reconnectMinMillis = 1_000;
+        private long reconnectMaxMillis = 60_000;
     }
 
     @NoArgsConstructor
     @Getter
     public static final class HTTPServerConfiguration {
         private int port;
+        private int threads = 4;
+        private int backlog;
+        private int maxEventStreams = 4;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class SettlementConfiguration {
+        private boolean enabled;
+        private String journalPath = "transactions.journal";
+        private double maxPendingMoney = 5;
+        private long retryMillis = 5_000;
+        private long maxRetryMillis = 300_000;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class CircuitBreakerConfiguration {
+        private boolean enabled = false;
+        private int windowSize = 20;
+        private int minimumCalls = 5;
+        private double failureRateThreshold = 0.5;
+        private long slowCallMillis = 3_000;
+        private double slowCallRateThreshold = 0.8;
+        private long openMillis = 15_000;
+        private long minSlowCallThresholdMillis = 1_500;
+        private long maxSlowCallThresholdMillis = 8_000;
+        private double slowCallThresholdMultiplier = 2;
+        private FastFailPolicy fastFailPolicy = FastFailPolicy.REJECT;
+        private Sound fastFailSound = Sound.UNKNOWN_ERROR;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class JournalConfiguration {
+        private boolean enabled = true;
+        private String directory = "journal";
+        private int segmentBytes = 4 * 1024 * 1024;
+        private int maxSegments = 64;
+        private long syncTimeoutMillis = 1_000;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class EventsConfiguration {
+        private int capacity = 1024;
+        private int batchSize = 256;
+        private long heartbeatMillis = 15_000;
+        private long retryMillis = 1_000;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class ChipCacheConfiguration {
+        private long maximumSize = 1024;
+        private long ttlMillis = 300_000;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class DeduplicationConfiguration {
+        private int capacity = 16;
+        private long pupilWindowMillis = 3_000;
+        private long serviceWindowMillis = 500;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class SalesConfiguration {
+        private String path = "sales.json";
+        private long snapshotIntervalMillis = 60_000;
+        private int retainedHours = 48;
+        private int retainedDays = 31;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class StockConfiguration {
+        private boolean enabled = true;
+        private String path = "stock.json";
+        private int lowThreshold = 3;
+        private long flushMillis = 1_000;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class AccountingConfiguration {
+        private boolean enabled = true;
+        private String directory = "accounting";
+        private ExportFormat format = ExportFormat.CSV;
+        private long flushMillis = 60_000;
+        private int batchSize = 200;
+        private int bufferCapacity = 10_000;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class SoundConfiguration {
+        private boolean enabled = true;
+        private long maxQueueAgeMillis = 2_000;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class TelemetryConfiguration {
+        private long intervalMillis = 10_000;
+        private int historySize = 60;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class SimulationConfiguration {
+        private boolean enabled;
+        private List<String> chips = List.of();
+        private long chipIntervalMillis;
+        private double price = 1;
+        private long selectionDelayMillis = 500;
+        private double selectionTimeoutRate;
+        private double invalidProductRate;
+        private long transactionLatencyMillis = 150;
+        private long transactionLatencyJitterMillis = 100;
+        private double errorRate;
+        private List<String> errorCodes = List.of("ACCOUNT_OVERDRAWN", "ACCOUNT_DAILY_LIMIT", "INVALID_CHIP");
+        private double transportErrorRate;
+    }
+
+    @NoArgsConstructor
+    @Getter
+    public static final class ReloadConfiguration {
+        private boolean enabled = true;
+        private long debounceMillis = 500;
     }
 }
@@ -0,0 +1,109 @@
+package de.waldorfaugsburg.barista.configuration;
+
+import de.waldorfaugsburg.barista.sound.Sound;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Immutable view of the settings which can change while running, swapped as a whole on every reload
+public final class ConfigurationSnapshot {
+
+    private final long version;
+    private final long loadedAt;
+    private final String serviceChipId;
+    private final Map<String, Sound> sounds;
+    private final int startMoney;
+    private final long mdbTimeoutMillis;
+    private final Map<String, LaneSnapshot> lanes;
+
+    private ConfigurationSnapshot(final long version, final BaristaConfiguration configuration) {
+        this.version = version;
+        this.loadedAt = System.currentTimeMillis();
+        this.serviceChipId = configuration.getServiceChipId();
+        this.sounds = configuration.getSounds() == null ? Map.of() : Map.copyOf(configuration.getSounds());
+        this.startMoney = configuration.getMdb().getStartMoney();
+        this.mdbTimeoutMillis = configuration.getMdb().getTimeoutMillis();
+
+        final Map<String, LaneSnapshot> lanes = new HashMap<>();
+        for (final BaristaConfiguration.LaneConfiguration lane : configuration.getLanes()) {
+            final String kiosk = lane.getKiosk() != null ? lane.getKiosk() : configuration.getMensaMax().getKiosk();
+            final Map<Integer, Long> products = lane.getProducts() != null ? lane.getProducts() : configuration.getProducts();
+            lanes.put(lane.getName(), new LaneSnapshot(kiosk, new ProductTable(products)));
+        }
+        this.lanes = Map.copyOf(lanes);
+    }
+
+    // Rejects configurations which would break a running machine, e.g. a product mapped to no barcode
+    public static ConfigurationSnapshot create(final long version, final BaristaConfiguration configuration) {
+        if (configuration.getServiceChipId() == null || configuration.getServiceChipId().isBlank()) {
+            throw new IllegalArgumentException("No service chip id given");
+        }
+        if (configuration.getMdb() == null) throw new IllegalArgumentException("No mdb section given");
+        if (configuration.getMdb().getStartMoney() < 0) throw new IllegalArgumentException("Negative mdb start money");
+        if (configuration.getMdb().getTimeoutMillis() <= 0) throw new IllegalArgumentException("Mdb timeout must be positive");
+        if (configuration.getSounds() != null) {
+            for (final Map.Entry<String, Sound> entry : configuration.getSounds().entrySet()) {
+                // Gson maps unknown enum names to null
+                if (entry.getValue() == null) throw new IllegalArgumentException("Unknown sound for chip '" + entry.getKey() + "'");
+            }
+        }
+
+        final Set<String> laneNames = new HashSet<>();
+        for (final BaristaConfiguration.LaneConfiguration lane : configuration.getLanes()) {
+            if (lane.getName() == null || lane.getName().isBlank()) throw new IllegalArgumentException("Lane without name given");
+            if (!laneNames.add(lane.getName())) throw new IllegalArgumentException("Duplicate lane '" + lane.getName() + "'");
+
+            final String kiosk = lane.getKiosk() != null ? lane.getKiosk()
+                    : configuration.getMensaMax() == null ? null : configuration.getMensaMax().getKiosk();
+            if (kiosk == null || kiosk.isBlank()) throw new IllegalArgumentException("No kiosk given for lane '" + lane.getName() + "'");
+
+            final Map<Integer, Long> products = lane.getProducts() != null ? lane.getProducts() : configuration.getProducts();
+            if (products == null || products.isEmpty()) throw new IllegalArgumentException("No products given for lane '" + lane.getName() + "'");
+            for (final Map.Entry<Integer, Long> entry : products.entrySet()) {
+                if (entry.getKey() == null || entry.getKey() < 0) throw new IllegalArgumentException("Invalid product id '" + entry.getKey() + "'");
+                if (entry.getValue() == null || entry.getValue() <= 0) {
+                    throw new IllegalArgumentException("Invalid barcode for product '" + entry.getKey() + "' on lane '" + lane.getName() + "'");
+                }
+            }
+        }
+        return new ConfigurationSnapshot(version, configuration);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public String getServiceChipId() {
+        return serviceChipId;
+    }
+
+    // Sound played for the given chip instead of START, null if there is none
+    public Sound getSound(final String chipId) {
+        return sounds.get(chipId);
+    }
+
+    public int getStartMoney() {
+        return startMoney;
+    }
+
+    public long getMdbTimeoutMillis() {
+        return mdbTimeoutMillis;
+    }
+
+    public LaneSnapshot getLane(final String name) {
+        return lanes.get(name);
+    }
+
+    public Set<String> getLaneNames() {
+        return lanes.keySet();
+    }
+
+    public record LaneSnapshot(String kiosk, ProductTable products) {
+    }
+}
@@ -0,0 +1,71 @@
+package de.waldorfaugsburg.barista.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+// Notifies about changes of a single file, bursts of events from one save are collapsed into one notification
+@Slf4j
+public final class ConfigurationWatcher implements AutoCloseable {
+
+    private final Path path;
+    private final long debounceMillis;
+    private final Runnable listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    public ConfigurationWatcher(final Path path, final long debounceMillis, final Runnable listener) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.debounceMillis = debounceMillis;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        // Editors often replace the file instead of writing it, so the directory is watched
+        this.path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "configuration-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching '{}' for changes", this.path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                do {
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || path.getFileName().equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    key.reset();
+                } while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null);
+
+                if (changed) {
+                    try {
+                        listener.run();
+                    } catch (final Exception e) {
+                        log.error("An error occurred while handling change of '{}'", path, e);
+                    }
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Configuration watcher stopped");
+        }
+    }
+}
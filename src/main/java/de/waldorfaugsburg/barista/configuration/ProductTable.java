@@ -0,0 +1,62 @@
+package de.waldorfaugsburg.barista.configuration;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// Immutable open-addressing map from MDB product id to barcode without boxing
+public final class ProductTable {
+
+    public static final long MISSING = -1;
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private final int[] keys;
+    private final long[] values;
+    private final int mask;
+    private final int size;
+
+    public ProductTable(final Map<Integer, Long> products) {
+        // At most half full so that probe sequences stay short
+        int capacity = 2;
+        while (capacity < products.size() * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new int[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+        this.size = products.size();
+
+        Arrays.fill(keys, EMPTY);
+        for (final Map.Entry<Integer, Long> entry : products.entrySet()) {
+            final int productId = entry.getKey();
+            if (productId == EMPTY) throw new IllegalArgumentException("Invalid product id " + productId);
+
+            int index = index(productId);
+            while (keys[index] != EMPTY && keys[index] != productId) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = productId;
+            values[index] = entry.getValue();
+        }
+    }
+
+    // Barcode of the given product or MISSING
+    public long get(final int productId) {
+        int index = index(productId);
+        int key;
+        while ((key = keys[index]) != EMPTY) {
+            if (key == productId) return values[index];
+            index = (index + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int index(final int productId) {
+        final int hash = productId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
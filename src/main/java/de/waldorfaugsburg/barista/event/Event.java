@@ -0,0 +1,6 @@
+package de.waldorfaugsburg.barista.event;
+
+// Fields which don't apply to the type are null and left out of the serialized event
+public record Event(long sequence, EventType type, long timestamp, String lane, String chipId, Integer productId,
+                    Double money, String detail) {
+}
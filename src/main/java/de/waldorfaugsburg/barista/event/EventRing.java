@@ -0,0 +1,62 @@
+package de.waldorfaugsburg.barista.event;
+
+import de.waldorfaugsburg.barista.mdb.MDBProduct;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Bounded multi-producer ring of the latest events, publishing never blocks and overwrites the oldest event
+public final class EventRing {
+
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong(1);
+
+    public EventRing(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public void publish(final EventType type, final String lane, final String chipId, final MDBProduct product, final String detail) {
+        final long sequence = nextSequence.getAndIncrement();
+        slots.set((int) (sequence & mask), new Event(sequence, type, System.currentTimeMillis(), lane, chipId,
+                product == null ? null : product.productId(), product == null ? null : product.money(), detail));
+    }
+
+    public void publish(final EventType type, final String lane, final String detail) {
+        publish(type, lane, null, null, detail);
+    }
+
+    // Sequence the next published event will get
+    public long getNextSequence() {
+        return nextSequence.get();
+    }
+
+    // Oldest sequence which may still be read, everything before was overwritten
+    public long getOldestSequence() {
+        return Math.max(1, nextSequence.get() - slots.length());
+    }
+
+    // Adds the events from the given sequence on and returns the sequence to continue with
+    public long read(final long fromSequence, final List<Event> events, final int limit) {
+        long sequence = Math.max(fromSequence, getOldestSequence());
+        final long end = nextSequence.get();
+        while (sequence < end && events.size() < limit) {
+            final Event event = slots.get((int) (sequence & mask));
+
+            // Claimed but not yet written by its publisher, or already overwritten by a lap of the ring
+            if (event == null || event.sequence() != sequence) {
+                if (event != null && event.sequence() > sequence) {
+                    sequence = getOldestSequence();
+                    continue;
+                }
+                break;
+            }
+            events.add(event);
+            sequence++;
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,13 @@
+package de.waldorfaugsburg.barista.event;
+
+public enum EventType {
+
+    CHIP_SCANNED,
+    SELECTION_RECEIVED,
+    AUTHORIZATION,
+    VEND_CONFIRMED,
+    VEND_CANCELLED,
+    FREE_MODE,
+    SOUND_PLAYED,
+    MDB_VERSION
+}
@@ -0,0 +1,5 @@
+package de.waldorfaugsburg.barista.http;
+
+// Body of POST /, without a lane all lanes are switched
+public record FreeModeRequest(Boolean free, String lane) {
+}
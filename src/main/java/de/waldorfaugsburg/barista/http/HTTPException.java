@@ -0,0 +1,16 @@
+package de.waldorfaugsburg.barista.http;
+
+// Ends a request with the given status code, the message is sent to the client
+public final class HTTPException extends Exception {
+
+    private final int status;
+
+    public HTTPException(final int status, final String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -1,122 +1,407 @@
 package de.waldorfaugsburg.barista.http;
 
+import com.google.common.cache.CacheStats;
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.configuration.ConfigurationSnapshot;
+import de.waldorfaugsburg.barista.event.Event;
+import de.waldorfaugsburg.barista.event.EventRing;
+import de.waldorfaugsburg.barista.journal.VendJournal;
+import de.waldorfaugsburg.barista.lane.Lane;
+import de.waldorfaugsburg.barista.metrics.Metrics;
 import de.waldorfaugsburg.barista.sound.Sound;
-import express.Express;
-import express.http.request.Request;
-import express.http.response.Response;
-import express.utils.Status;
+import de.waldorfaugsburg.barista.stock.StockTable;
+import de.waldorfaugsburg.barista.startup.StartupGraph;
+import de.waldorfaugsburg.barista.telemetry.TelemetrySnapshot;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public final class HTTPServer implements AutoCloseable {
 
+    private static final long EVENT_POLL_MILLIS = 50;
+    // Answered while the other subsystems are still starting
+    private static final Set<String> STARTUP_PATHS = Set.of("/health/live", "/health/ready", "/events");
+
+    static {
+        // Headers and body are written separately, with Nagle enabled every response would wait for a delayed ack
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
     private final BaristaApplication application;
+    private final BaristaConfiguration.HTTPServerConfiguration configuration;
 
     private final Gson gson = new Gson();
-    private final Express server = new Express();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Map<String, Route>> routes = new HashMap<>();
+    private final AtomicInteger eventStreams = new AtomicInteger();
 
-    public HTTPServer(final BaristaApplication application, final int port) {
+    public HTTPServer(final BaristaApplication application, final BaristaConfiguration.HTTPServerConfiguration configuration) throws IOException {
         this.application = application;
+        this.configuration = configuration;
+
+        // Event streams hold their thread for as long as the client stays connected
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(configuration.getThreads() + configuration.getMaxEventStreams(),
+                runnable -> new Thread(runnable, "http-" + threadCount.incrementAndGet()));
 
         setupRoutes();
-        server.listen(port);
-        log.info("Listening for incoming http requests on port '{}'", port);
+        this.server = HttpServer.create(new InetSocketAddress(configuration.getPort()), configuration.getBacklog());
+        server.createContext("/", this::dispatch);
+        server.setExecutor(executor);
+        server.start();
+        log.info("Listening for incoming http requests on port '{}'", getPort());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
     }
 
     private void setupRoutes() {
-        server.get("/", (req, res) -> {
-            final JsonObject object = new JsonObject();
-            object.addProperty("free", application.getPaymentProcessor().isFreeMode());
-            object.addProperty("temperature", getProcessorTemperature());
-            res.send(gson.toJson(object));
+        route("GET", "/", exchange -> sendJson(exchange, 200, createStatus()));
+        route("GET", "/health/live", exchange -> {
+            // Only a failed subsystem is worth a restart, a slow one is not
+            final boolean live = !application.getStartupGraph().hasFailed();
+            sendJson(exchange, live ? 200 : 503, new HealthResponse(live ? "UP" : "DOWN", application.getStartupGraph().getSubsystems()));
         });
-        server.post("/", (req, res) -> {
-            if (isContentTypeInvalid(req, res)) return;
-
-            final Reader reader = new InputStreamReader(req.getBody(), StandardCharsets.UTF_8);
-            final JsonObject element = gson.fromJson(reader, JsonObject.class);
+        route("GET", "/health/ready", exchange -> {
+            final StartupGraph startupGraph = application.getStartupGraph();
+            final boolean ready = startupGraph.isReady();
+            sendJson(exchange, ready ? 200 : 503, new HealthResponse(ready ? "UP" : startupGraph.hasFailed() ? "DOWN" : "STARTING", startupGraph.getSubsystems()));
+        });
+        route("GET", "/events", this::streamEvents);
+        route("GET", "/telemetry", exchange -> sendJson(exchange, 200, application.getTelemetrySampler().getHistory()));
+        route("GET", "/journal", exchange -> {
+            final VendJournal journal = getVendJournal();
+            final long fromVendId = getLongQuery(exchange, "from", 0);
 
-            if (!element.has("free")) {
-                res.sendStatus(Status._500);
-                log.error("Invalid http request: No free state given");
-                return;
+            // One JSON object per line, ordered as written and streamed straight from the segments
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            try (final Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                journal.read(fromVendId, record -> {
+                    gson.toJson(record, writer);
+                    try {
+                        writer.write('\n');
+                    } catch (final IOException e) {
+                        throw new JsonIOException(e);
+                    }
+                });
+            } catch (final JsonIOException e) {
+                log.debug("Journal stream was closed by the client", e);
             }
-
-            final boolean freeMode = element.get("free").getAsBoolean();
-            application.getPaymentProcessor().setFreeMode(freeMode);
-
-            res.sendStatus(Status._200);
         });
-        server.post("/play", (req, res) -> {
-            if (isContentTypeInvalid(req, res)) return;
+        route("GET", "/journal/unfinished", exchange -> sendJson(exchange, 200, getVendJournal().getUnfinishedVends()));
+        route("GET", "/stock", exchange -> {
+            final StockTable stockTable = getStockTable();
+            final Map<String, List<StockTable.StockLevel>> levels = new LinkedHashMap<>();
+            for (final Lane lane : application.getLanes()) {
+                levels.put(lane.getName(), stockTable.getLevels(lane.getName()));
+            }
+            sendJson(exchange, 200, levels);
+        });
+        route("GET", "/sales", exchange -> sendJson(exchange, 200, application.getSalesStore().createReport()));
+        route("GET", "/metrics", exchange -> {
+            final StringBuilder builder = new StringBuilder();
+            final List<Metrics> metrics = new ArrayList<>();
+            for (final Lane lane : application.getLanes()) {
+                metrics.add(lane.getMetrics());
+            }
+            Metrics.writePrometheus(builder, metrics);
+            send(exchange, 200, "text/plain; version=0.0.4", builder.toString());
+        });
+        route("POST", "/", exchange -> {
+            final FreeModeRequest request = readJson(exchange, FreeModeRequest.class);
+            if (request.free() == null) throw new HTTPException(400, "No free state given");
 
-            final Reader reader = new InputStreamReader(req.getBody(), StandardCharsets.UTF_8);
-            final JsonObject element = gson.fromJson(reader, JsonObject.class);
+            if (request.lane() != null) {
+                final Lane lane = application.getLane(request.lane());
+                if (lane == null) throw new HTTPException(404, "Unknown lane '" + request.lane() + "'");
 
-            if (!element.has("sound")) {
-                res.sendStatus(Status._500);
-                log.error("Invalid http request: No sound given");
-                return;
+                lane.getPaymentProcessor().setFreeMode(request.free());
+            } else {
+                for (final Lane lane : application.getLanes()) {
+                    lane.getPaymentProcessor().setFreeMode(request.free());
+                }
             }
+            sendStatus(exchange, 200);
+        });
+        route("POST", "/stock", exchange -> {
+            final StockRequest request = readJson(exchange, StockRequest.class);
+            if (request.productId() == null) throw new HTTPException(400, "No product id given");
+            if (request.quantity() != null && request.quantity() < 0) throw new HTTPException(422, "Negative quantity given");
 
-            final String soundName = element.get("sound").getAsString();
-            final Sound sound = Sound.findByName(soundName);
-            if (sound == null) {
-                res.sendStatus(Status._500);
-                log.error("Invalid http request: Invalid sound '{}' given", soundName);
-                return;
+            final Lane lane;
+            if (request.lane() != null) {
+                lane = application.getLane(request.lane());
+                if (lane == null) throw new HTTPException(404, "Unknown lane '" + request.lane() + "'");
+            } else {
+                // The lane may only be left out if there is just one
+                if (application.getLanes().size() != 1) throw new HTTPException(400, "No lane given");
+                lane = application.getLanes().get(0);
             }
 
+            getStockTable().set(lane.getName(), request.productId(), request.quantity());
+            sendStatus(exchange, 200);
+        });
+        route("POST", "/play", exchange -> {
+            final PlayRequest request = readJson(exchange, PlayRequest.class);
+            if (request.sound() == null) throw new HTTPException(400, "No sound given");
+
+            final Sound sound = Sound.findByName(request.sound());
+            if (sound == null) throw new HTTPException(422, "Invalid sound '" + request.sound() + "'");
+
             log.info("Playing sound: {}", sound.name());
             application.getSoundPlayer().play(sound);
-            res.sendStatus(Status._200);
+            sendStatus(exchange, 200);
         });
     }
 
-    private double getProcessorTemperature() {
+    private StatusResponse createStatus() {
+        boolean free = true;
+        final List<StatusResponse.LaneStatus> lanes = new ArrayList<>();
+        final StockTable stockTable = application.getStockTable();
+        for (final Lane lane : application.getLanes()) {
+            final boolean laneFree = lane.getPaymentProcessor().isFreeMode();
+            lanes.add(new StatusResponse.LaneStatus(lane.getName(), laneFree, lane.getPaymentProcessor().getState().name(),
+                    lane.getMdbInterface().getCommandStatistics(), lane.getMdbInterface().getLinkStatus(),
+                    lane.getPaymentProcessor().getDeduplicationStatistics(),
+                    stockTable == null ? null : stockTable.getLowLevels(lane.getName())));
+            free &= laneFree;
+        }
+
+        final TelemetrySnapshot telemetry = application.getTelemetrySampler().getSnapshot();
+        final CacheStats chipCacheStats = application.getChipAccountCache().getStats();
+        final VendJournal journal = application.getVendJournal();
+        final ConfigurationSnapshot snapshot = application.getSnapshot();
+        return new StatusResponse(free, lanes, telemetry.temperature(), telemetry,
+                new StatusResponse.ChipCacheStatus(application.getChipAccountCache().getSize(), chipCacheStats.hitCount(), chipCacheStats.missCount()),
+                application.getSoundPlayer().getStatistics(),
+                journal == null ? null : new StatusResponse.JournalStatus(journal.getSegmentCount(), journal.getUnfinishedVends().size()),
+                application.getCircuitBreaker() == null ? null : application.getCircuitBreaker().getStatus(),
+                new StatusResponse.ConfigurationStatus(snapshot.getVersion(), snapshot.getLoadedAt(), application.getReloadError()),
+                application.getAccountingExporter() == null ? null : application.getAccountingExporter().getStatistics());
+    }
+
+    private void streamEvents(final HttpExchange exchange) throws IOException, HTTPException {
+        final BaristaConfiguration.EventsConfiguration eventsConfiguration = application.getConfiguration().getEvents();
+        final EventRing eventRing = application.getEventRing();
+
+        // EventSource reconnects with the id of the last event it received
+        final String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        long sequence;
         try {
-            final Process process = Runtime.getRuntime().exec(new String[]{"vcgencmd", "measure_temp"});
-            process.waitFor();
+            sequence = lastEventId != null ? Long.parseLong(lastEventId.trim()) + 1 : getLongQuery(exchange, "from", eventRing.getNextSequence());
+        } catch (final NumberFormatException e) {
+            throw new HTTPException(400, "Invalid Last-Event-ID '" + lastEventId + "'");
+        }
 
-            final int exitValue = process.exitValue();
-            if (exitValue != 0) {
-                throw new IllegalArgumentException("process exited with status " + exitValue);
-            }
+        if (eventStreams.incrementAndGet() > configuration.getMaxEventStreams()) {
+            eventStreams.decrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "10");
+            throw new HTTPException(503, "Too many event streams");
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            writer.write("retry: " + eventsConfiguration.getRetryMillis() + "\n\n");
+            writer.flush();
+
+            // Readers only poll the ring, publishers never wait for a slow client
+            final List<Event> events = new ArrayList<>();
+            long lastWriteMillis = System.currentTimeMillis();
+            while (!Thread.currentThread().isInterrupted()) {
+                events.clear();
+                final long nextSequence = eventRing.read(sequence, events, eventsConfiguration.getBatchSize());
 
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("temp")) {
-                    line = line.substring(5, line.length() - 2);
-                    return Double.parseDouble(line);
+                // The ring skips whatever was overwritten before this stream got to read it, at connect or mid-stream
+                boolean gap = false;
+                for (final Event event : events) {
+                    if (event.sequence() > sequence) {
+                        writeGap(writer, event.sequence() - sequence);
+                        gap = true;
+                    }
+                    writer.write("id: " + event.sequence() + "\nevent: " + event.type().name() + "\ndata: ");
+                    gson.toJson(event, writer);
+                    writer.write("\n\n");
+                    sequence = event.sequence() + 1;
                 }
+                if (nextSequence > sequence) {
+                    writeGap(writer, nextSequence - sequence);
+                    gap = true;
+                }
+                sequence = nextSequence;
+
+                if (!events.isEmpty() || gap) {
+                    writer.flush();
+                    lastWriteMillis = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - lastWriteMillis >= eventsConfiguration.getHeartbeatMillis()) {
+                    // Comments keep proxies from closing the connection and reveal disconnected clients
+                    writer.write(":\n\n");
+                    writer.flush();
+                    lastWriteMillis = System.currentTimeMillis();
+                } else {
+                    Thread.sleep(EVENT_POLL_MILLIS);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            log.debug("Event stream was closed by the client", e);
+        } finally {
+            eventStreams.decrementAndGet();
+        }
+    }
+
+    private static void writeGap(final Writer writer, final long dropped) throws IOException {
+        writer.write("event: GAP\ndata: {\"dropped\":" + dropped + "}\n\n");
+    }
+
+    private void route(final String method, final String path, final Route route) {
+        routes.computeIfAbsent(path, key -> new LinkedHashMap<>()).put(method, route);
+    }
+
+    private void dispatch(final HttpExchange exchange) throws IOException {
+        try {
+            final Map<String, Route> pathRoutes = routes.get(exchange.getRequestURI().getPath());
+            if (pathRoutes == null) throw new HTTPException(404, "Not found");
+
+            final Route route = pathRoutes.get(exchange.getRequestMethod());
+            if (route == null) {
+                exchange.getResponseHeaders().set("Allow", String.join(", ", pathRoutes.keySet()));
+                throw new HTTPException(405, "Method not allowed");
+            }
+            if (!application.isReady() && !STARTUP_PATHS.contains(exchange.getRequestURI().getPath())) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                throw new HTTPException(503, "Starting");
             }
-        } catch (final IOException | InterruptedException e) {
-            log.error("An error occurred while reading cpu temperature", e);
+            route.handle(exchange);
+        } catch (final HTTPException e) {
+            log.error("Invalid http request to '{}': {}", exchange.getRequestURI(), e.getMessage());
+            sendJson(exchange, e.getStatus(), Map.of("error", e.getMessage()));
+        } catch (final Exception e) {
+            log.error("An error occurred while handling http request to '{}'", exchange.getRequestURI(), e);
+            if (exchange.getResponseCode() == -1) {
+                sendJson(exchange, 500, Map.of("error", "Internal server error"));
+            }
+        } finally {
+            exchange.close();
         }
-        return -1;
     }
 
-    private boolean isContentTypeInvalid(Request req, Response res) {
-        if (!req.getContentType().equals("application/json")) {
-            res.sendStatus(Status._400);
-            log.error("Invalid http request: content-type mismatch");
-            return true;
+    // Decodes the body straight from the request stream, honoring the charset of the content-type
+    private <T> T readJson(final HttpExchange exchange, final Class<T> type) throws HTTPException {
+        final MediaType mediaType = MediaType.parse(exchange.getRequestHeaders().getFirst("Content-Type"));
+        if (mediaType == null || !mediaType.isJson()) throw new HTTPException(415, "Content-type must be application/json");
+
+        final Charset charset = mediaType.getCharset();
+        if (charset == null) throw new HTTPException(415, "Unsupported charset '" + mediaType.parameters().get("charset") + "'");
+
+        // Not closed here, whatever follows the json value is drained before responding
+        final Reader reader = new InputStreamReader(exchange.getRequestBody(), charset);
+        final T value;
+        try {
+            value = gson.fromJson(reader, type);
+        } catch (final JsonParseException e) {
+            throw new HTTPException(400, "Malformed json body");
         }
-        return false;
+        if (value == null) throw new HTTPException(400, "Empty json body");
+        return value;
     }
 
-    @Override
-    public void close() {
-        server.stop();
+    private long getLongQuery(final HttpExchange exchange, final String name, final long defaultValue) throws HTTPException {
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return defaultValue;
+
+        for (final String parameter : query.split("&")) {
+            final int separator = parameter.indexOf('=');
+            if (separator == -1 || !URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8).equals(name)) continue;
+
+            final String value = URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+            try {
+                return Long.parseLong(value);
+            } catch (final NumberFormatException e) {
+                throw new HTTPException(400, "Invalid value '" + value + "' for '" + name + "'");
+            }
+        }
+        return defaultValue;
+    }
+
+    private StockTable getStockTable() throws HTTPException {
+        final StockTable stockTable = application.getStockTable();
+        if (stockTable == null) throw new HTTPException(404, "Stock tracking is disabled");
+        return stockTable;
+    }
+
+    private VendJournal getVendJournal() throws HTTPException {
+        final VendJournal journal = application.getVendJournal();
+        if (journal == null) throw new HTTPException(404, "Journal is disabled");
+        return journal;
+    }
+
+    private void sendJson(final HttpExchange exchange, final int status, final Object body) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", gson.toJson(body));
+    }
+
+    private void send(final HttpExchange exchange, final int status, final String contentType, final String body) throws IOException {
+        // Unread request bodies would break the next request on a kept-alive connection
+        drain(exchange.getRequestBody());
+
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private void sendStatus(final HttpExchange exchange, final int status) throws IOException {
+        drain(exchange.getRequestBody());
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private void drain(final InputStream inputStream) throws IOException {
+        inputStream.transferTo(OutputStream.nullOutputStream());
+    }
+
+    @FunctionalInterface
+    private interface Route {
+
+        void handle(HttpExchange exchange) throws IOException, HTTPException;
     }
 }
@@ -0,0 +1,9 @@
+package de.waldorfaugsburg.barista.http;
+
+import de.waldorfaugsburg.barista.startup.Subsystem;
+
+import java.util.List;
+
+// Body of GET /health/live and /health/ready
+public record HealthResponse(String status, List<Subsystem> subsystems) {
+}
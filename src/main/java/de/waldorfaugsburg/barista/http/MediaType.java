@@ -0,0 +1,50 @@
+package de.waldorfaugsburg.barista.http;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public record MediaType(String type, String subtype, Map<String, String> parameters) {
+
+    // Parses a content-type header like "application/json; charset=utf-8", null if it is malformed
+    public static MediaType parse(final String value) {
+        if (value == null) return null;
+
+        final String[] parts = value.split(";");
+        final String[] types = parts[0].trim().toLowerCase(Locale.ROOT).split("/");
+        if (types.length != 2 || types[0].isEmpty() || types[1].isEmpty()) return null;
+
+        final Map<String, String> parameters = new HashMap<>();
+        for (int i = 1; i < parts.length; i++) {
+            final int separator = parts[i].indexOf('=');
+            if (separator == -1) continue;
+
+            String parameter = parts[i].substring(separator + 1).trim();
+            if (parameter.length() >= 2 && parameter.startsWith("\"") && parameter.endsWith("\"")) {
+                parameter = parameter.substring(1, parameter.length() - 1);
+            }
+            parameters.put(parts[i].substring(0, separator).trim().toLowerCase(Locale.ROOT), parameter);
+        }
+        return new MediaType(types[0], types[1], parameters);
+    }
+
+    public boolean isJson() {
+        return type.equals("application") && (subtype.equals("json") || subtype.endsWith("+json"));
+    }
+
+    // JSON defaults to UTF-8, null if the given charset is not supported
+    public Charset getCharset() {
+        final String charset = parameters.get("charset");
+        if (charset == null) return StandardCharsets.UTF_8;
+
+        try {
+            return Charset.forName(charset);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package de.waldorfaugsburg.barista.http;
+
+// Body of POST /play
+public record PlayRequest(String sound) {
+}
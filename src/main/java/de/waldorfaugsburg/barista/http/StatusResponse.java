@@ -0,0 +1,33 @@
+package de.waldorfaugsburg.barista.http;
+
+import de.waldorfaugsburg.barista.accounting.AccountingExporter;
+import de.waldorfaugsburg.barista.chip.ChipDeduplicator;
+import de.waldorfaugsburg.barista.mdb.MDBCommandQueue;
+import de.waldorfaugsburg.barista.mdb.MDBWatchdog;
+import de.waldorfaugsburg.barista.mensamax.CircuitBreakerMensaMaxGateway;
+import de.waldorfaugsburg.barista.sound.SoundPlayer;
+import de.waldorfaugsburg.barista.stock.StockTable;
+import de.waldorfaugsburg.barista.telemetry.TelemetrySnapshot;
+
+import java.util.List;
+
+// Body of GET /, journal, mensaMax and accounting are left out when disabled
+public record StatusResponse(boolean free, List<LaneStatus> lanes, double temperature, TelemetrySnapshot telemetry,
+                             ChipCacheStatus chipCache, SoundPlayer.Statistics sound, JournalStatus journal,
+                             CircuitBreakerMensaMaxGateway.Status mensaMax, ConfigurationStatus configuration,
+                             AccountingExporter.Statistics accounting) {
+
+    public record LaneStatus(String name, boolean free, String state, MDBCommandQueue.Statistics mdb, MDBWatchdog.Status link,
+                             ChipDeduplicator.Statistics deduplication, List<StockTable.StockLevel> lowStock) {
+    }
+
+    public record ChipCacheStatus(long size, long hits, long misses) {
+    }
+
+    public record JournalStatus(int segments, int unfinished) {
+    }
+
+    // Error is the reason why the last change of the configuration file was not applied
+    public record ConfigurationStatus(long version, long loadedAt, String error) {
+    }
+}
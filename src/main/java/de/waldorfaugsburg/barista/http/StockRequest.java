@@ -0,0 +1,5 @@
+package de.waldorfaugsburg.barista.http;
+
+// Body of POST /stock, without a quantity the product is no longer tracked
+public record StockRequest(String lane, Integer productId, Integer quantity) {
+}
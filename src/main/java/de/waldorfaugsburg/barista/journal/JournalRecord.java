@@ -0,0 +1,16 @@
+package de.waldorfaugsburg.barista.journal;
+
+import de.waldorfaugsburg.barista.metrics.Stage;
+
+import java.util.Map;
+
+// BEGIN is written at the chip scan, SELECTION once a product was selected and END once the outcome of that vend is known
+public record JournalRecord(Type type, long vendId, long timestamp, String lane, String chipId, int productId,
+                            double money, long barcode, String outcome, Map<Stage, Long> stageMicros) {
+
+    public enum Type {
+        BEGIN,
+        END,
+        SELECTION
+    }
+}
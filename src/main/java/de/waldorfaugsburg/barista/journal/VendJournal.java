@@ -0,0 +1,362 @@
+package de.waldorfaugsburg.barista.journal;
+
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.metrics.Stage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Binary append-only journal of every vend, written through memory-mapped segments
+@Slf4j
+public final class VendJournal implements AutoCloseable {
+
+    private static final int MAGIC = 0x42564a31;
+    private static final int HEADER_SIZE = Integer.BYTES;
+    // Length and checksum in front of every payload, a zero length marks the end of a segment
+    private static final int RECORD_OVERHEAD = Integer.BYTES * 2;
+    private static final int MAX_STRING_BYTES = 255;
+    private static final Stage[] STAGES = Stage.values();
+
+    private final BaristaConfiguration.JournalConfiguration configuration;
+    private final Path directory;
+    private final Map<Long, JournalRecord> unfinishedVends = new LinkedHashMap<>();
+    private final Thread syncThread;
+
+    // Guarded by this
+    private final List<Path> segments = new ArrayList<>();
+    // Segment holding the BEGIN record of every vend without an outcome yet, such segments are never deleted
+    private final Map<Long, Path> unfinishedSegments = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int syncedPosition;
+    private long nextVendId = 1;
+    private long nextSegment;
+    private CompletableFuture<Void> pendingSync = new CompletableFuture<>();
+    private boolean closed;
+
+    public VendJournal(final BaristaConfiguration.JournalConfiguration configuration) throws IOException {
+        this.configuration = configuration;
+        this.directory = Path.of(configuration.getDirectory());
+        Files.createDirectories(directory);
+
+        replay();
+        for (final JournalRecord record : unfinishedVends.values()) {
+            log.warn("Vend '{}' on lane '{}' by '{}' for product '{}' ({}€) was interrupted before its outcome was recorded",
+                    record.vendId(), record.lane(), record.chipId(), record.productId(), record.money());
+        }
+
+        // Recovered segments stay untouched, a possibly torn tail is never appended to
+        openSegment();
+        log.info("Vend journal recovered {} segment(s) with {} unfinished vend(s)", segments.size() - 1, unfinishedVends.size());
+
+        this.syncThread = new Thread(this::runSync, "journal-sync");
+        syncThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncThread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    public long begin(final String lane, final String chipId) {
+        synchronized (this) {
+            final long vendId = nextVendId++;
+            append(new JournalRecord(JournalRecord.Type.BEGIN, vendId, System.currentTimeMillis(), lane, chipId,
+                    0, 0, 0, null, null));
+            unfinishedSegments.put(vendId, segments.get(segments.size() - 1));
+            return vendId;
+        }
+    }
+
+    // Returns once the selection reached the disk, so a power loss can't lose a started booking
+    public void select(final long vendId, final int productId, final double money, final long barcode) {
+        final CompletableFuture<Void> sync;
+        synchronized (this) {
+            sync = append(new JournalRecord(JournalRecord.Type.SELECTION, vendId, System.currentTimeMillis(), null, null,
+                    productId, money, barcode, null, null));
+        }
+        awaitSync(sync);
+    }
+
+    public void end(final long vendId, final String outcome, final Map<Stage, Long> stageMicros) {
+        synchronized (this) {
+            append(new JournalRecord(JournalRecord.Type.END, vendId, System.currentTimeMillis(), null, null, 0, 0, 0,
+                    outcome, stageMicros));
+            unfinishedSegments.remove(vendId);
+        }
+    }
+
+    public synchronized List<JournalRecord> getUnfinishedVends() {
+        return new ArrayList<>(unfinishedVends.values());
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    // Reads all complete records with a vend id of at least fromVendId, including the ones of the active segment
+    public void read(final long fromVendId, final Consumer<JournalRecord> consumer) throws IOException {
+        final List<Path> paths;
+        synchronized (this) {
+            paths = new ArrayList<>(segments);
+        }
+        for (final Path path : paths) {
+            readSegment(path, record -> {
+                if (record.vendId() >= fromVendId) {
+                    consumer.accept(record);
+                }
+            });
+        }
+    }
+
+    private CompletableFuture<Void> append(final JournalRecord record) {
+        if (closed) return CompletableFuture.completedFuture(null);
+
+        final byte[] payload = encode(record);
+        try {
+            // The end marker of the current segment is the zeroed space behind the last record
+            if (buffer.remaining() < RECORD_OVERHEAD + payload.length + Integer.BYTES) {
+                buffer.force();
+                channel.close();
+                openSegment();
+            }
+        } catch (final IOException e) {
+            log.error("An error occurred while rotating vend journal, dropping vend '{}'", record.vendId(), e);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        // The length is written last so that readers never see a partially written record
+        final int position = buffer.position();
+        buffer.position(position + Integer.BYTES);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.putInt(position, payload.length);
+
+        notifyAll();
+        return pendingSync;
+    }
+
+    // Group commit, every record appended while a sync is running is covered by the next one
+    private void runSync() {
+        while (true) {
+            final MappedByteBuffer syncBuffer;
+            final int from;
+            final int to;
+            final CompletableFuture<Void> sync;
+            synchronized (this) {
+                while (!closed && buffer.position() == syncedPosition) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    pendingSync.complete(null);
+                    return;
+                }
+
+                syncBuffer = buffer;
+                from = syncedPosition;
+                to = buffer.position();
+                syncedPosition = to;
+                sync = pendingSync;
+                pendingSync = new CompletableFuture<>();
+            }
+
+            syncBuffer.force(from, to - from);
+            sync.complete(null);
+        }
+    }
+
+    private void awaitSync(final CompletableFuture<Void> sync) {
+        try {
+            sync.get(configuration.getSyncTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            log.warn("Vend journal sync took longer than {}ms", configuration.getSyncTimeoutMillis());
+        } catch (final ExecutionException e) {
+            log.error("An error occurred while syncing vend journal", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        final Path path = directory.resolve(String.format("vends-%010d.journal", nextSegment++));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, configuration.getSegmentBytes());
+        buffer.putInt(MAGIC);
+        buffer.force();
+        syncedPosition = buffer.position();
+        segments.add(path);
+
+        final Set<Path> retained = new HashSet<>(unfinishedSegments.values());
+        final Iterator<Path> iterator = segments.iterator();
+        int excess = segments.size() - configuration.getMaxSegments();
+        while (excess > 0 && iterator.hasNext()) {
+            final Path oldest = iterator.next();
+            if (retained.contains(oldest) || oldest.equals(path)) continue;
+
+            iterator.remove();
+            excess--;
+            Files.deleteIfExists(oldest);
+            log.info("Deleted old vend journal segment '{}'", oldest.getFileName());
+        }
+        if (excess > 0) {
+            log.warn("Keeping {} vend journal segment(s) beyond the limit of {}, they hold vends without outcome",
+                    excess, configuration.getMaxSegments());
+        }
+    }
+
+    private void replay() throws IOException {
+        final List<Path> paths;
+        try (final Stream<Path> stream = Files.list(directory)) {
+            paths = stream.filter(path -> path.getFileName().toString().matches("vends-\\d+\\.journal")).sorted().toList();
+        }
+
+        for (final Path path : paths) {
+            segments.add(path);
+            nextSegment = Long.parseLong(path.getFileName().toString().replaceAll("\\D", "")) + 1;
+            readSegment(path, record -> {
+                nextVendId = Math.max(nextVendId, record.vendId() + 1);
+                switch (record.type()) {
+                    case BEGIN -> {
+                        unfinishedVends.put(record.vendId(), record);
+                        unfinishedSegments.put(record.vendId(), path);
+                    }
+                    case SELECTION -> unfinishedVends.computeIfPresent(record.vendId(), (vendId, begin) ->
+                            new JournalRecord(begin.type(), vendId, begin.timestamp(), begin.lane(), begin.chipId(),
+                                    record.productId(), record.money(), record.barcode(), null, null));
+                    case END -> {
+                        unfinishedVends.remove(record.vendId());
+                        unfinishedSegments.remove(record.vendId());
+                    }
+                }
+            });
+        }
+    }
+
+    private void readSegment(final Path path, final Consumer<JournalRecord> consumer) throws IOException {
+        final ByteBuffer segment;
+        try (final FileChannel segmentChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            segment = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+        }
+
+        if (segment.remaining() < HEADER_SIZE || segment.getInt() != MAGIC) {
+            log.warn("Skipping vend journal segment '{}' without valid header", path.getFileName());
+            return;
+        }
+
+        final CRC32 crc = new CRC32();
+        while (segment.remaining() >= RECORD_OVERHEAD) {
+            final int length = segment.getInt();
+            if (length <= 0 || length > segment.remaining() - Integer.BYTES) return;
+
+            final int checksum = segment.getInt();
+            final ByteBuffer payload = segment.slice(segment.position(), length);
+            segment.position(segment.position() + length);
+
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                // A torn write after a power loss, nothing behind it can be trusted
+                log.warn("Vend journal segment '{}' ends with a corrupt record", path.getFileName());
+                return;
+            }
+            consumer.accept(decode(payload));
+        }
+    }
+
+    private static byte[] encode(final JournalRecord record) {
+        final ByteBuffer payload = ByteBuffer.allocate(1024);
+        payload.put((byte) record.type().ordinal());
+        payload.putLong(record.vendId());
+        payload.putLong(record.timestamp());
+        if (record.type() != JournalRecord.Type.END) {
+            putString(payload, record.lane());
+            putString(payload, record.chipId());
+            payload.putInt(record.productId());
+            payload.putDouble(record.money());
+            payload.putLong(record.barcode());
+        } else {
+            putString(payload, record.outcome());
+            final Map<Stage, Long> stageMicros = record.stageMicros() == null ? Map.of() : record.stageMicros();
+            payload.put((byte) stageMicros.size());
+            for (final Map.Entry<Stage, Long> entry : stageMicros.entrySet()) {
+                payload.put((byte) entry.getKey().ordinal());
+                payload.putLong(entry.getValue());
+            }
+        }
+        return Arrays.copyOf(payload.array(), payload.position());
+    }
+
+    private static JournalRecord decode(final ByteBuffer payload) {
+        final JournalRecord.Type type = JournalRecord.Type.values()[payload.get()];
+        final long vendId = payload.getLong();
+        final long timestamp = payload.getLong();
+        if (type != JournalRecord.Type.END) {
+            return new JournalRecord(type, vendId, timestamp, getString(payload), getString(payload), payload.getInt(),
+                    payload.getDouble(), payload.getLong(), null, null);
+        }
+
+        final String outcome = getString(payload);
+        final Map<Stage, Long> stageMicros = new EnumMap<>(Stage.class);
+        final int stageCount = payload.get();
+        for (int i = 0; i < stageCount; i++) {
+            stageMicros.put(STAGES[payload.get()], payload.getLong());
+        }
+        return new JournalRecord(type, vendId, timestamp, null, null, 0, 0, 0, outcome, stageMicros);
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        final byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        final int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        buffer.putShort((short) length);
+        buffer.put(bytes, 0, length);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,108 @@
+package de.waldorfaugsburg.barista.lane;
+
+import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.chip.ChipSource;
+import de.waldorfaugsburg.barista.chip.ReaderChipSource;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.configuration.ConfigurationSnapshot;
+import de.waldorfaugsburg.barista.mdb.MDBInterface;
+import de.waldorfaugsburg.barista.mdb.MDBTransport;
+import de.waldorfaugsburg.barista.mdb.SerialMDBTransport;
+import de.waldorfaugsburg.barista.metrics.Metrics;
+import de.waldorfaugsburg.barista.payment.PaymentProcessor;
+import de.waldorfaugsburg.barista.sales.SalesCounters;
+import de.waldorfaugsburg.barista.simulation.SimulatedChipSource;
+import de.waldorfaugsburg.barista.simulation.SimulatedMDBTransport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+// One vending machine with its own MDB interface, chip reader and payment processor
+@Slf4j
+public final class Lane implements AutoCloseable {
+
+    private final BaristaApplication application;
+    private final BaristaConfiguration.LaneConfiguration configuration;
+    private final String name;
+    private final Metrics metrics;
+    private final SalesCounters sales;
+    private volatile ChipSource chipSource;
+    private volatile MDBInterface mdbInterface;
+    private volatile PaymentProcessor paymentProcessor;
+
+    public Lane(final BaristaApplication application, final BaristaConfiguration.LaneConfiguration configuration) {
+        this.application = application;
+        this.configuration = configuration;
+        this.name = configuration.getName();
+        this.metrics = new Metrics(name);
+
+        final BaristaConfiguration.SalesConfiguration salesConfiguration = application.getConfiguration().getSales();
+        this.sales = new SalesCounters(name, salesConfiguration.getRetainedHours(), salesConfiguration.getRetainedDays());
+    }
+
+    // Opens the chip reader and runs the MDB handshake, which does not depend on any shared service
+    public void open() throws Exception {
+        final BaristaConfiguration applicationConfiguration = application.getConfiguration();
+        final MDBTransport mdbTransport;
+        if (applicationConfiguration.getSimulation().isEnabled()) {
+            chipSource = new SimulatedChipSource(applicationConfiguration.getSimulation());
+            mdbTransport = new SimulatedMDBTransport(applicationConfiguration.getSimulation(), new ArrayList<>(getProductIds()));
+        } else {
+            chipSource = new ReaderChipSource(configuration.getChipReaderPath());
+            mdbTransport = new SerialMDBTransport(configuration.getSerialDevice());
+        }
+
+        mdbInterface = new MDBInterface(application, this, mdbTransport);
+    }
+
+    // Starts accepting chips, requires the shared services to be ready
+    public void start() {
+        paymentProcessor = new PaymentProcessor(application, this);
+        final ConfigurationSnapshot.LaneSnapshot snapshot = application.getSnapshot().getLane(name);
+        log.info("Lane '{}' enabled for kiosk '{}' with {} product(s)", name, snapshot.kiosk(), snapshot.products().size());
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (paymentProcessor != null) {
+            paymentProcessor.close();
+        }
+        if (chipSource != null) {
+            chipSource.close();
+        }
+        if (mdbInterface != null) {
+            mdbInterface.close();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public SalesCounters getSales() {
+        return sales;
+    }
+
+    public ChipSource getChipSource() {
+        return chipSource;
+    }
+
+    public MDBInterface getMdbInterface() {
+        return mdbInterface;
+    }
+
+    public PaymentProcessor getPaymentProcessor() {
+        return paymentProcessor;
+    }
+
+    // Products of the configuration the lane was started with, the simulated machine offers only these
+    private Set<Integer> getProductIds() {
+        final BaristaConfiguration applicationConfiguration = application.getConfiguration();
+        return (configuration.getProducts() != null ? configuration.getProducts() : applicationConfiguration.getProducts()).keySet();
+    }
+}
@@ -0,0 +1,12 @@
+package de.waldorfaugsburg.barista.mdb;
+
+public final class MDBCommandException extends Exception {
+
+    public MDBCommandException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public MDBCommandException(final String message) {
+        this(message, null);
+    }
+}
@@ -0,0 +1,225 @@
+package de.waldorfaugsburg.barista.mdb;
+
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.metrics.Metrics;
+import de.waldorfaugsburg.barista.metrics.Stage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// Outbound commands of one MDB interface, written in batches by a dedicated thread and completed once the device answers
+@Slf4j
+public final class MDBCommandQueue implements AutoCloseable {
+
+    private final String lane;
+    private final MDBTransport transport;
+    private final Metrics metrics;
+    private final BaristaConfiguration.MDBConfiguration configuration;
+    private final BlockingQueue<Command> outbound = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService timer;
+    private final Thread writer;
+
+    // Written commands awaiting their answer in the order they were sent, guarded by this
+    private final ArrayDeque<Command> inFlight = new ArrayDeque<>();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public MDBCommandQueue(final String lane, final MDBTransport transport, final Metrics metrics,
+                           final BaristaConfiguration.MDBConfiguration configuration) {
+        this.lane = lane;
+        this.transport = transport;
+        this.metrics = metrics;
+        this.configuration = configuration;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "mdb-timeout-" + lane);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::runWriter, "mdb-writer-" + lane);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void close() {
+        writer.interrupt();
+        timer.shutdownNow();
+
+        final MDBCommandException exception = new MDBCommandException("MDB interface closed");
+        final List<Command> pending = new ArrayList<>();
+        outbound.drainTo(pending);
+        synchronized (this) {
+            pending.addAll(inFlight);
+            inFlight.clear();
+        }
+        for (final Command command : pending) {
+            command.future.completeExceptionally(exception);
+        }
+    }
+
+    // Completes once the device answered with the expected status, or with a version frame if none is expected, never blocks the caller
+    public CompletableFuture<Void> submit(final MDBStatus expected, final boolean retryable, final String... args) {
+        final Command command = new Command(String.join(",", args), expected, retryable);
+        outbound.add(command);
+        return command.future;
+    }
+
+    public void acknowledgeVersion() {
+        complete(command -> command.expected == null, null);
+    }
+
+    // Status frames are matched to the oldest command expecting exactly this status, unsolicited ones complete nothing
+    public void acknowledgeStatus(final MDBStatus status) {
+        complete(command -> command.expected == status, null);
+    }
+
+    // Rejections don't name the command they refer to, the oldest cashless command is assumed
+    public void reject(final String rejection) {
+        complete(command -> command.expected != null, rejection);
+    }
+
+    public Statistics getStatistics() {
+        final int pending;
+        synchronized (this) {
+            pending = inFlight.size();
+        }
+        return new Statistics(sent.sum(), retries.sum(), timeouts.sum(), rejections.sum(), outbound.size() + pending);
+    }
+
+    private void runWriter() {
+        final List<Command> batch = new ArrayList<>();
+        final List<String> lines = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(outbound.take());
+            } catch (final InterruptedException e) {
+                break;
+            }
+            outbound.drainTo(batch, configuration.getCommandBatchSize() - 1);
+
+            if (!transport.isOpen()) {
+                failAll(batch, new MDBCommandException("Transport '" + transport.getName() + "' is closed"));
+                continue;
+            }
+
+            // Registered before writing so that a fast answer can't overtake its command
+            final long startNanos = System.nanoTime();
+            synchronized (this) {
+                for (final Command command : batch) {
+                    command.attempts++;
+                    command.sentNanos = startNanos;
+                    command.timeout = timer.schedule(() -> expire(command), configuration.getCommandTimeoutMillis(), TimeUnit.MILLISECONDS);
+                    inFlight.add(command);
+                    lines.add(command.line);
+                }
+            }
+
+            try {
+                transport.writeLines(lines);
+                metrics.recordSince(Stage.MDB_SEND, startNanos);
+                sent.add(batch.size());
+            } catch (final IOException e) {
+                synchronized (this) {
+                    inFlight.removeAll(batch);
+                }
+                for (final Command command : batch) {
+                    command.timeout.cancel(false);
+                }
+                failAll(batch, new MDBCommandException("Writing to '" + transport.getName() + "' failed", e));
+            }
+            batch.clear();
+            lines.clear();
+        }
+    }
+
+    private void complete(final Predicate<Command> matcher, final String rejection) {
+        final Command command;
+        synchronized (this) {
+            command = removeInFlight(matcher);
+        }
+        if (command == null) return;
+
+        command.timeout.cancel(false);
+        metrics.recordSince(Stage.MDB_ROUND_TRIP, command.sentNanos);
+        if (rejection == null) {
+            command.future.complete(null);
+        } else {
+            rejections.increment();
+            command.future.completeExceptionally(new MDBCommandException("Device rejected '" + command.line + "': " + rejection));
+        }
+    }
+
+    private void expire(final Command command) {
+        synchronized (this) {
+            if (!inFlight.remove(command)) return;
+        }
+
+        // Resending a vend or a start could charge or start a session twice if only the answer got lost
+        if (command.retryable && command.attempts <= configuration.getCommandRetries()) {
+            retries.increment();
+            log.warn("[{}] No answer to '{}' within {}ms, retrying", lane, command.line, configuration.getCommandTimeoutMillis());
+            outbound.add(command);
+            return;
+        }
+
+        timeouts.increment();
+        log.error("[{}] Cashless device did not answer '{}' after {} attempt(s)", lane, command.line, command.attempts);
+        command.future.completeExceptionally(new MDBCommandException("No answer to '" + command.line + "'"));
+    }
+
+    private Command removeInFlight(final Predicate<Command> matcher) {
+        final Iterator<Command> iterator = inFlight.iterator();
+        while (iterator.hasNext()) {
+            final Command command = iterator.next();
+            if (matcher.test(command)) {
+                iterator.remove();
+                return command;
+            }
+        }
+        return null;
+    }
+
+    private static void failAll(final List<Command> batch, final MDBCommandException exception) {
+        for (final Command command : batch) {
+            command.future.completeExceptionally(exception);
+        }
+        batch.clear();
+    }
+
+    public record Statistics(long sent, long retries, long timeouts, long rejections, int pending) {
+    }
+
+    // Attempts, timeout and send time are only changed by the writer while holding the queue lock
+    private static final class Command {
+
+        private final String line;
+        private final MDBStatus expected;
+        private final boolean retryable;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int attempts;
+        private long sentNanos;
+        private ScheduledFuture<?> timeout;
+
+        private Command(final String line, final MDBStatus expected, final boolean retryable) {
+            this.line = line;
+            this.expected = expected;
+            this.retryable = retryable;
+        }
+    }
+}
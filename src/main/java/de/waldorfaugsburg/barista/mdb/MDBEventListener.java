@@ -0,0 +1,15 @@
+package de.waldorfaugsburg.barista.mdb;
+
+public interface MDBEventListener {
+
+    void onVend(int productId, double money);
+
+    void onStatus(MDBStatus status);
+
+    void onVersion(String version);
+
+    // The device refused the last command
+    void onRejected(String error);
+
+    void onError(String error);
+}
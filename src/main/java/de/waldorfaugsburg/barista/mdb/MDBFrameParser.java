@@ -0,0 +1,164 @@
+package de.waldorfaugsburg.barista.mdb;
+
+import java.nio.charset.StandardCharsets;
+
+public final class MDBFrameParser {
+
+    private static final int MAX_FRAME_LENGTH = 256;
+    private static final int MAX_FIELDS = 8;
+
+    private static final byte[] STATUS = "STATUS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VEND = "VEND".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR = "ERR".getBytes(StandardCharsets.US_ASCII);
+
+    private final MDBEventListener listener;
+
+    // Bytes are collected until a line break completes the frame, frames may span several serial events
+    private final byte[] buffer = new byte[MAX_FRAME_LENGTH];
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+
+    private int length;
+    private boolean overflow;
+
+    public MDBFrameParser(final MDBEventListener listener) {
+        this.listener = listener;
+    }
+
+    public void feed(final byte[] data) {
+        feed(data, 0, data.length);
+    }
+
+    public void feed(final byte[] data, final int offset, final int count) {
+        for (int i = offset; i < offset + count; i++) {
+            final byte b = data[i];
+            if (b == '\n' || b == '\r') {
+                if (overflow) {
+                    listener.onError("Discarded frame exceeding " + MAX_FRAME_LENGTH + " bytes");
+                } else if (length > 0) {
+                    dispatch();
+                }
+
+                length = 0;
+                overflow = false;
+                continue;
+            }
+
+            if (length == buffer.length) {
+                overflow = true;
+                continue;
+            }
+            buffer[length++] = b;
+        }
+    }
+
+    private void dispatch() {
+        final int fields = split();
+
+        if (fieldEquals(0, 'c')) {
+            if (fields >= 3 && fieldEquals(1, STATUS)) {
+                if (fields >= 5 && fieldEquals(2, VEND)) {
+                    final double money = parseMoney(fieldStarts[3], fieldEnds[3]);
+                    final int productId = parseInt(fieldStarts[4], fieldEnds[4]);
+                    if (Double.isNaN(money) || productId < 0) {
+                        listener.onError("Malformed vend frame: " + frameString(0));
+                        return;
+                    }
+
+                    listener.onVend(productId, money);
+                    return;
+                }
+
+                listener.onStatus(MDBStatus.findByAscii(buffer, fieldStarts[2], fieldEnds[2] - fieldStarts[2]));
+            } else if (fields >= 2 && fieldEquals(1, ERROR)) {
+                listener.onRejected(fields >= 3 ? frameString(fieldStarts[2]) : "unknown");
+            }
+        } else if (fieldEquals(0, 'v') && fields >= 2) {
+            listener.onVersion(frameString(fieldStarts[1]));
+        }
+    }
+
+    private int split() {
+        int fields = 0;
+        int start = 0;
+        for (int i = 0; i <= length && fields < MAX_FIELDS; i++) {
+            if (i == length || buffer[i] == ',') {
+                fieldStarts[fields] = start;
+                fieldEnds[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+
+        // Trailing fields are merged into the last one
+        if (fields == MAX_FIELDS) {
+            fieldEnds[MAX_FIELDS - 1] = length;
+        }
+        return fields;
+    }
+
+    private boolean fieldEquals(final int field, final char c) {
+        return fieldEnds[field] - fieldStarts[field] == 1 && buffer[fieldStarts[field]] == c;
+    }
+
+    private boolean fieldEquals(final int field, final byte[] value) {
+        final int start = fieldStarts[field];
+        if (fieldEnds[field] - start != value.length) return false;
+
+        for (int i = 0; i < value.length; i++) {
+            if (buffer[start + i] != value[i]) return false;
+        }
+        return true;
+    }
+
+    private double parseMoney(int start, int end) {
+        while (start < end && buffer[start] == ' ') start++;
+        while (end > start && buffer[end - 1] == ' ') end--;
+        if (start == end) return Double.NaN;
+
+        boolean negative = false;
+        if (buffer[start] == '-') {
+            negative = true;
+            start++;
+        }
+
+        long value = 0;
+        long divisor = 1;
+        boolean fraction = false;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            final byte b = buffer[i];
+            if (b == '.' && !fraction) {
+                fraction = true;
+            } else if (b >= '0' && b <= '9' && value < Long.MAX_VALUE / 10) {
+                value = value * 10 + (b - '0');
+                digits = true;
+                if (fraction) divisor *= 10;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (!digits) return Double.NaN;
+
+        final double money = (double) value / divisor;
+        return negative ? -money : money;
+    }
+
+    private int parseInt(int start, int end) {
+        while (start < end && buffer[start] == ' ') start++;
+        while (end > start && buffer[end - 1] == ' ') end--;
+        if (start == end || end - start > 9) return -1;
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = buffer[i];
+            if (b < '0' || b > '9') return -1;
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private String frameString(final int start) {
+        return new String(buffer, start, length - start, StandardCharsets.US_ASCII);
+    }
+}
@@ -1,133 +1,189 @@
 package de.waldorfaugsburg.barista.mdb;
 
-import com.pi4j.io.serial.*;
 import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.event.EventType;
+import de.waldorfaugsburg.barista.lane.Lane;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Function;
 
 @Slf4j
-public final class MDBInterface implements AutoCloseable {
+public final class MDBInterface implements MDBEventListener, AutoCloseable {
 
     private final BaristaApplication application;
-    private final Serial serial;
-    private final Function<Long, Boolean> waitFunction;
-    private final AtomicReference<MDBProduct> atomicProduct;
-
-    public MDBInterface(final BaristaApplication application) throws IOException, InterruptedException {
+    private final Lane lane;
+    private final MDBTransport transport;
+    private final MDBCommandQueue commands;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicReference<CompletableFuture<MDBProduct>> pendingProduct;
+    private final MDBWatchdog watchdog;
+    private volatile String version;
+
+    public MDBInterface(final BaristaApplication application, final Lane lane, final MDBTransport transport) throws IOException, InterruptedException {
         this.application = application;
-        this.serial = SerialFactory.createInstance();
-        this.waitFunction = startMillis -> System.currentTimeMillis() - startMillis >= application.getConfiguration().getMdb().getTimeoutMillis();
-        this.atomicProduct = new AtomicReference<>(null);
-
-        final String defaultPort = SerialPort.getDefaultPort();
-        serial.open(new SerialConfig().device(defaultPort).baud(Baud._115200).dataBits(DataBits._8).parity(Parity.NONE).stopBits(StopBits._1));
-
-        log.info("Serial connection opened on port '{}'", defaultPort);
+        this.lane = lane;
+        this.transport = transport;
+        this.commands = new MDBCommandQueue(lane.getName(), transport, lane.getMetrics(), application.getConfiguration().getMdb());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.pendingProduct = new AtomicReference<>(null);
 
-        serial.addListener(event -> {
-            try {
-                final String data = event.getAsciiString();
-                handleIncomingData(data);
-            } catch (final IOException e) {
-                log.info("An error occurred while handling data", e);
-            }
-        });
+        transport.open(new MDBFrameParser(this)::feed);
+        log.info("[{}] MDB connection opened on '{}'", lane.getName(), transport.getName());
 
         // Sending version command
-        send("V");
+        send(null, true, "V");
+
+        // Enabling "cashless slave" mode, the lane still starts if the board is wedged so that the watchdog can recover it
+        try {
+            send(MDBStatus.ENABLED, true, "C", "1").get();
+        } catch (final ExecutionException e) {
+            log.warn("[{}] Cashless device did not confirm enabling cashless mode", lane.getName());
+        }
 
-        // Enabling "cashless slave" mode
-        send("C", "1");
+        this.watchdog = new MDBWatchdog(this, lane.getName(), lane.getMetrics(), application.getConfiguration().getMdb());
     }
 
     @Override
     public void close() throws Exception {
-        serial.close();
-    }
-
-    public MDBProduct awaitProduct(final boolean timeout) throws InterruptedException {
-        // Initiate payment
-        send("C", "START", Integer.toString(application.getConfiguration().getMdb().getStartMoney()));
-
-        // Start timeout watcher thread
-        if (timeout) {
-            final long startMillis = System.currentTimeMillis();
-            final Thread watcherThread = new Thread(() -> {
-                while (!Thread.interrupted()) {
-                    if (waitFunction.apply(startMillis)) {
-                        synchronized (atomicProduct) {
-                            atomicProduct.notify();
-                        }
-                        break;
-                    }
-                }
-            });
-            watcherThread.start();
+        watchdog.close();
+        releasePendingProduct();
+        commands.close();
+        scheduler.shutdownNow();
+        transport.close();
+    }
+
+    // A timeout of zero waits until the selection is stopped
+    public CompletableFuture<MDBProduct> awaitProduct(final int startMoney, final long timeoutMillis) {
+        final CompletableFuture<MDBProduct> future = new CompletableFuture<>();
+
+        // Only one selection can be pending at a time, release a potential predecessor
+        final CompletableFuture<MDBProduct> previous = pendingProduct.getAndSet(future);
+        if (previous != null) {
+            previous.complete(null);
         }
 
-        while (atomicProduct.get() == null) {
-            synchronized (atomicProduct) {
-                try {
-                    atomicProduct.wait();
-                    break;
-                } catch (InterruptedException ignored) {
-                }
+        // Initiate payment, a refused start can't lead to a selection
+        send(MDBStatus.IDLE, false, "C", "START", Integer.toString(startMoney)).whenComplete((result, throwable) -> {
+            if (throwable != null && pendingProduct.compareAndSet(future, null)) {
+                future.completeExceptionally(throwable);
             }
+        });
+
+        // Complete with no product once the timeout expires
+        if (timeoutMillis > 0) {
+            final ScheduledFuture<?> timeoutFuture = scheduler.schedule(() -> {
+                if (pendingProduct.compareAndSet(future, null)) {
+                    future.complete(null);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            future.whenComplete((product, throwable) -> timeoutFuture.cancel(false));
         }
 
-        final MDBProduct product = atomicProduct.get();
-        atomicProduct.set(null);
-        return product;
+        return future;
     }
 
-    public void stopSelection() {
-        send("C", "STOP");
+    public CompletableFuture<Void> stopSelection() {
+        final CompletableFuture<Void> stop = send(MDBStatus.ENABLED, true, "C", "STOP");
 
-        // Release potential blocking
-        synchronized (atomicProduct) {
-            atomicProduct.notify();
-        }
+        // Release potential waiters
+        releasePendingProduct();
+        return stop;
     }
 
-    public void confirmPayment(final MDBProduct product) {
-        send("C", "VEND", Double.toString(product.money()));
+    public CompletableFuture<Void> confirmPayment(final MDBProduct product) {
+        return send(MDBStatus.IDLE, false, "C", "VEND", Double.toString(product.money()));
     }
 
-    public void cancelPayment() {
-        send("C", "VEND", "-1");
+    public CompletableFuture<Void> cancelPayment() {
+        return send(MDBStatus.IDLE, false, "C", "VEND", "-1");
     }
 
-    private void handleIncomingData(final String data) {
-        final String[] parsedData = parseData(data);
-
-        // Reading incoming data
-        if (parsedData[0].equals("c") && parsedData[1].equals("STATUS") && parsedData[2].equals("VEND")) {
-            final double money = Double.parseDouble(parsedData[3].trim());
-            final int productId = Integer.parseInt(parsedData[4].trim());
+    public MDBCommandQueue.Statistics getCommandStatistics() {
+        return commands.getStatistics();
+    }
 
-            atomicProduct.set(new MDBProduct(productId, money));
-            synchronized (atomicProduct) {
-                atomicProduct.notify();
-            }
-        } else if (parsedData[0].equals("v")) {
-            log.info("Machine is using MDB version: " + parsedData[1]);
-        }
+    public MDBWatchdog.Status getLinkStatus() {
+        return watchdog.getStatus();
     }
 
-    private void send(final String... args) {
-        if (serial.isClosed()) return;
+    // Version request used by the watchdog, completes once the device answered
+    CompletableFuture<Void> probe() {
+        return commands.submit(null, true, "V");
+    }
 
+    // Reopens the transport and enables cashless mode again, a pending selection can't complete anymore
+    void reconnect() throws IOException, InterruptedException, ExecutionException {
+        releasePendingProduct();
         try {
-            serial.writeln(String.join(",", args));
+            transport.close();
         } catch (final IOException e) {
-            log.error("An error occurred while sending data", e);
+            log.debug("[{}] An error occurred while closing dead MDB connection", lane.getName(), e);
         }
+
+        // A fresh parser drops a frame that was cut off by the disconnect
+        transport.open(new MDBFrameParser(this)::feed);
+        send(MDBStatus.ENABLED, true, "C", "1").get();
     }
 
-    private String[] parseData(final String data) {
-        return data.split(",");
+    @Override
+    public void onVend(final int productId, final double money) {
+        final CompletableFuture<MDBProduct> future = pendingProduct.getAndSet(null);
+        if (future == null) {
+            log.warn("[{}] Ignoring selection of product '{}' ({}€) without pending payment", lane.getName(), productId, money);
+            return;
+        }
+        future.complete(new MDBProduct(productId, money));
+    }
+
+    @Override
+    public void onStatus(final MDBStatus status) {
+        log.debug("[{}] Cashless device reported status: {}", lane.getName(), status);
+        commands.acknowledgeStatus(status);
+    }
+
+    @Override
+    public void onVersion(final String version) {
+        commands.acknowledgeVersion();
+
+        // Answered on every watchdog probe, only a changed version is worth reporting
+        if (!version.equals(this.version)) {
+            this.version = version;
+            log.info("[{}] Machine is using MDB version: {}", lane.getName(), version);
+            application.getEventRing().publish(EventType.MDB_VERSION, lane.getName(), version);
+        }
+    }
+
+    @Override
+    public void onRejected(final String error) {
+        log.error("[{}] Cashless device rejected command: {}", lane.getName(), error);
+        commands.reject(error);
+    }
+
+    @Override
+    public void onError(final String error) {
+        log.error("[{}] Cashless device reported an error: {}", lane.getName(), error);
+    }
+
+    private void releasePendingProduct() {
+        final CompletableFuture<MDBProduct> future = pendingProduct.getAndSet(null);
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+
+    // Failures are logged here, callers only need the result if they have to react to it
+    private CompletableFuture<Void> send(final MDBStatus expected, final boolean retryable, final String... args) {
+        return commands.submit(expected, retryable, args).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                log.error("[{}] Command '{}' failed: {}", lane.getName(), String.join(",", args), throwable.getMessage());
+            }
+        });
     }
 }
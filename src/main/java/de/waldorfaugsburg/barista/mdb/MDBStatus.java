@@ -0,0 +1,33 @@
+package de.waldorfaugsburg.barista.mdb;
+
+import java.nio.charset.StandardCharsets;
+
+public enum MDBStatus {
+
+    INACTIVE,
+    DISABLED,
+    ENABLED,
+    IDLE,
+    VEND,
+    UNKNOWN;
+
+    private static final MDBStatus[] VALUES = values();
+
+    private final byte[] asciiName = name().getBytes(StandardCharsets.US_ASCII);
+
+    static MDBStatus findByAscii(final byte[] data, final int offset, final int length) {
+        for (final MDBStatus status : VALUES) {
+            if (status.asciiName.length != length) continue;
+
+            boolean equal = true;
+            for (int i = 0; i < length; i++) {
+                if (status.asciiName[i] != data[offset + i]) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) return status;
+        }
+        return UNKNOWN;
+    }
+}
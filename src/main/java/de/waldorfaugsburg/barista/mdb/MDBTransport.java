@@ -0,0 +1,20 @@
+package de.waldorfaugsburg.barista.mdb;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface MDBTransport extends AutoCloseable {
+
+    void open(Consumer<byte[]> receiver) throws IOException, InterruptedException;
+
+    // Writes all lines at once, each terminated by a line break
+    void writeLines(List<String> lines) throws IOException;
+
+    boolean isOpen();
+
+    String getName();
+
+    @Override
+    void close() throws IOException;
+}
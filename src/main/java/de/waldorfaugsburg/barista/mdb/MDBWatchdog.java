@@ -0,0 +1,107 @@
+package de.waldorfaugsburg.barista.mdb;
+
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.metrics.Metrics;
+import de.waldorfaugsburg.barista.metrics.Stage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Probes the MDB link with version requests and reopens it with growing delays once the device stops answering
+@Slf4j
+public final class MDBWatchdog implements AutoCloseable {
+
+    private final MDBInterface mdbInterface;
+    private final String lane;
+    private final Metrics metrics;
+    private final BaristaConfiguration.MDBConfiguration configuration;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder failedProbes = new LongAdder();
+    // Zero while the link is down
+    private volatile long connectedAt = System.currentTimeMillis();
+    private volatile long lastProbeNanos = -1;
+
+    MDBWatchdog(final MDBInterface mdbInterface, final String lane, final Metrics metrics,
+                final BaristaConfiguration.MDBConfiguration configuration) {
+        this.mdbInterface = mdbInterface;
+        this.lane = lane;
+        this.metrics = metrics;
+        this.configuration = configuration;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "mdb-watchdog-" + lane);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long interval = configuration.getProbeIntervalMillis();
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public Status getStatus() {
+        final long connectedAt = this.connectedAt;
+        final long lastProbeNanos = this.lastProbeNanos;
+        return new Status(connectedAt != 0, connectedAt == 0 ? 0 : System.currentTimeMillis() - connectedAt,
+                reconnects.sum(), failedProbes.sum(), lastProbeNanos < 0 ? -1 : lastProbeNanos / 1_000_000D);
+    }
+
+    private void probe() {
+        final long startNanos = System.nanoTime();
+        try {
+            // Bounded by the command timeout and retries of the queue
+            mdbInterface.probe().get();
+            lastProbeNanos = System.nanoTime() - startNanos;
+            metrics.recordSince(Stage.MDB_PROBE, startNanos);
+        } catch (final ExecutionException e) {
+            failedProbes.increment();
+            log.error("[{}] MDB link is not responding, reconnecting", lane);
+            reconnect();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Blocks the watchdog thread until the link is back, no probes are sent meanwhile
+    private void reconnect() {
+        connectedAt = 0;
+        long delay = configuration.getReconnectMinMillis();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                mdbInterface.reconnect();
+                reconnects.increment();
+                connectedAt = System.currentTimeMillis();
+                log.info("[{}] MDB link re-established", lane);
+                return;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Exception e) {
+                log.warn("[{}] Reconnecting MDB link failed, retrying in {}ms: {}", lane, delay, e.getMessage());
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delay = Math.min(delay * 2, configuration.getReconnectMaxMillis());
+        }
+    }
+
+    // Probe latency is -1 until the first probe was answered
+    public record Status(boolean connected, long uptimeMillis, long reconnects, long failedProbes, double probeMillis) {
+    }
+}
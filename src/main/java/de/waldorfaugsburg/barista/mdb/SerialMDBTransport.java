@@ -0,0 +1,69 @@
+package de.waldorfaugsburg.barista.mdb;
+
+import com.pi4j.io.serial.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+@Slf4j
+public final class SerialMDBTransport implements MDBTransport {
+
+    private volatile Serial serial;
+    private String port;
+
+    public SerialMDBTransport(final String port) {
+        this.port = port;
+    }
+
+    @Override
+    public void open(final Consumer<byte[]> receiver) throws IOException, InterruptedException {
+        if (port == null) {
+            port = SerialPort.getDefaultPort();
+        }
+        // A new instance per connection, listeners of a previous one must not deliver twice
+        final Serial serial = SerialFactory.createInstance();
+        serial.open(new SerialConfig().device(port).baud(Baud._115200).dataBits(DataBits._8).parity(Parity.NONE).stopBits(StopBits._1));
+
+        serial.addListener(event -> {
+            try {
+                receiver.accept(event.getBytes());
+            } catch (final IOException e) {
+                log.info("An error occurred while handling data", e);
+            }
+        });
+        this.serial = serial;
+    }
+
+    @Override
+    public void writeLines(final List<String> lines) throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        for (final String line : lines) {
+            builder.append(line).append("\r\n");
+        }
+        final Serial serial = this.serial;
+        if (serial == null) throw new IOException("Serial port '" + port + "' was not opened");
+        serial.write(builder.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public boolean isOpen() {
+        final Serial serial = this.serial;
+        return serial != null && !serial.isClosed();
+    }
+
+    @Override
+    public String getName() {
+        return port;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final Serial serial = this.serial;
+        if (serial != null) {
+            serial.close();
+        }
+    }
+}
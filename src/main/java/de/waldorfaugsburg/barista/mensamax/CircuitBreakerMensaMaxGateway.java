@@ -0,0 +1,223 @@
+package de.waldorfaugsburg.barista.mensamax;
+
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fails fast while MensaMax is unreachable or slow instead of letting every customer wait for the client timeout
+@Slf4j
+public final class CircuitBreakerMensaMaxGateway implements MensaMaxGateway, AutoCloseable {
+
+    private static final int TRANSITION_HISTORY = 16;
+
+    private final MensaMaxGateway gateway;
+    private final BaristaConfiguration.CircuitBreakerConfiguration configuration;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    // Rolling window over the last calls, guarded by this
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private final long[] latencies;
+    private int windowIndex;
+    private int windowSize;
+
+    private final Deque<Transition> transitions = new ArrayDeque<>();
+    private State state = State.CLOSED;
+    private long openedMillis;
+    private boolean probing;
+
+    private final LongAdder fastFailedCount = new LongAdder();
+    private final LongAdder thresholdExceededCount = new LongAdder();
+
+    public CircuitBreakerMensaMaxGateway(final MensaMaxGateway gateway, final BaristaConfiguration.CircuitBreakerConfiguration configuration) {
+        this.gateway = gateway;
+        this.configuration = configuration;
+        this.failures = new boolean[configuration.getWindowSize()];
+        this.slowCalls = new boolean[configuration.getWindowSize()];
+        this.latencies = new long[configuration.getWindowSize()];
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void transaction(final String chipId, final String kiosk, final long barcode) throws TransactionException {
+        final boolean probe = acquirePermission();
+        final long thresholdMillis = getSlowCallThresholdMillis();
+        final long startNanos = System.nanoTime();
+
+        final Future<?> future = executor.submit(() -> {
+            gateway.transaction(chipId, kiosk, barcode);
+            return null;
+        });
+        boolean recorded = false;
+        try {
+            try {
+                future.get(thresholdMillis, TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException e) {
+                // Only the breaker gives up on the call, the booking itself can't be taken back and has to finish
+                thresholdExceededCount.increment();
+                record(probe, true, startNanos);
+                recorded = true;
+                log.warn("Transaction by '{}' for product '{}' exceeded the slow-call threshold of {}ms, still awaiting its answer", chipId, barcode, thresholdMillis);
+                future.get();
+            }
+            if (!recorded) {
+                record(probe, false, startNanos);
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof final TransactionException transactionException) {
+                // Refusals are valid answers, only a missing answer counts as failure
+                if (!recorded) {
+                    record(probe, transactionException.getCode() == null, startNanos);
+                }
+                throw transactionException;
+            }
+            if (!recorded) {
+                record(probe, true, startNanos);
+            }
+            throw new TransactionException(null, "Transaction failed", e.getCause());
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            if (!recorded) {
+                releaseProbe(probe);
+            }
+            Thread.currentThread().interrupt();
+            throw new TransactionException(null, "Transaction was interrupted", e);
+        }
+    }
+
+    public synchronized Status getStatus() {
+        int failureCount = 0;
+        int slowCount = 0;
+        for (int i = 0; i < windowSize; i++) {
+            if (failures[i]) failureCount++;
+            if (slowCalls[i]) slowCount++;
+        }
+        return new Status(state, windowSize, windowSize == 0 ? 0 : (double) failureCount / windowSize,
+                windowSize == 0 ? 0 : (double) slowCount / windowSize, getP99Millis(), getSlowCallThresholdMillis(),
+                fastFailedCount.sum(), thresholdExceededCount.sum(), new ArrayList<>(transitions));
+    }
+
+    private synchronized boolean acquirePermission() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedMillis < configuration.getOpenMillis()) {
+                fastFailedCount.increment();
+                throw new CircuitOpenException();
+            }
+            transition(State.HALF_OPEN, "open period elapsed");
+        }
+        if (state == State.HALF_OPEN) {
+            // A single call probes whether MensaMax recovered, everybody else fails fast meanwhile
+            if (probing) {
+                fastFailedCount.increment();
+                throw new CircuitOpenException();
+            }
+            probing = true;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void releaseProbe(final boolean probe) {
+        if (probe) {
+            probing = false;
+        }
+    }
+
+    private synchronized void record(final boolean probe, final boolean failure, final long startNanos) {
+        final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        final boolean slow = latencyMillis >= configuration.getSlowCallMillis();
+
+        if (probe) {
+            probing = false;
+            if (failure || slow) {
+                transition(State.OPEN, failure ? "probe failed" : "probe took " + latencyMillis + "ms");
+            } else {
+                // Start over so the failures which opened the circuit don't trip it again
+                windowSize = 0;
+                windowIndex = 0;
+                transition(State.CLOSED, "probe succeeded");
+            }
+        }
+
+        failures[windowIndex] = failure;
+        slowCalls[windowIndex] = slow;
+        latencies[windowIndex] = latencyMillis;
+        windowIndex = (windowIndex + 1) % latencies.length;
+        windowSize = Math.min(windowSize + 1, latencies.length);
+
+        if (state != State.CLOSED || windowSize < configuration.getMinimumCalls()) return;
+
+        int failureCount = 0;
+        int slowCount = 0;
+        for (int i = 0; i < windowSize; i++) {
+            if (failures[i]) failureCount++;
+            if (slowCalls[i]) slowCount++;
+        }
+        final double failureRate = (double) failureCount / windowSize;
+        final double slowCallRate = (double) slowCount / windowSize;
+        if (failureRate >= configuration.getFailureRateThreshold()) {
+            transition(State.OPEN, String.format("failure rate %.2f", failureRate));
+        } else if (slowCallRate >= configuration.getSlowCallRateThreshold()) {
+            transition(State.OPEN, String.format("slow call rate %.2f", slowCallRate));
+        }
+    }
+
+    // Calls above this threshold count as failures, it follows the observed tail latency so that a slow MensaMax is noticed early
+    private synchronized long getSlowCallThresholdMillis() {
+        if (windowSize < configuration.getMinimumCalls()) return configuration.getMaxSlowCallThresholdMillis();
+
+        final long thresholdMillis = (long) (getP99Millis() * configuration.getSlowCallThresholdMultiplier());
+        return Math.max(configuration.getMinSlowCallThresholdMillis(), Math.min(configuration.getMaxSlowCallThresholdMillis(), thresholdMillis));
+    }
+
+    private synchronized long getP99Millis() {
+        if (windowSize == 0) return 0;
+
+        final long[] sorted = Arrays.copyOf(latencies, windowSize);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.99 * windowSize) - 1];
+    }
+
+    private void transition(final State next, final String reason) {
+        if (state == next) return;
+
+        log.warn("MensaMax circuit {} -> {} ({})", state, next, reason);
+        if (transitions.size() == TRANSITION_HISTORY) {
+            transitions.removeFirst();
+        }
+        transitions.addLast(new Transition(state, next, reason, System.currentTimeMillis()));
+        state = next;
+        if (next == State.OPEN) {
+            openedMillis = System.currentTimeMillis();
+        }
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public record Transition(State from, State to, String reason, long timestamp) {
+    }
+
+    public record Status(State state, int calls, double failureRate, double slowCallRate, long p99Millis,
+                         long slowCallThresholdMillis, long fastFailed, long thresholdExceeded, List<Transition> transitions) {
+    }
+}
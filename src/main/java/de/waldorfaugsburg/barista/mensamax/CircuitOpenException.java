@@ -0,0 +1,9 @@
+package de.waldorfaugsburg.barista.mensamax;
+
+// Thrown without contacting MensaMax while the circuit breaker is open
+public final class CircuitOpenException extends TransactionException {
+
+    public CircuitOpenException() {
+        super(null, "MensaMax circuit is open");
+    }
+}
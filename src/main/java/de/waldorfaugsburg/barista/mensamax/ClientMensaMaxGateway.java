@@ -0,0 +1,23 @@
+package de.waldorfaugsburg.barista.mensamax;
+
+import de.waldorfaugsburg.mensamax.client.MensaMaxClient;
+import de.waldorfaugsburg.mensamax.client.api.ApiException;
+
+public final class ClientMensaMaxGateway implements MensaMaxGateway {
+
+    private final MensaMaxClient client;
+
+    public ClientMensaMaxGateway(final String endpoint, final String apiKey) {
+        this.client = new MensaMaxClient(endpoint, apiKey);
+    }
+
+    @Override
+    public void transaction(final String chipId, final String kiosk, final long barcode) throws TransactionException {
+        try {
+            client.transaction(chipId, kiosk, barcode);
+        } catch (final ApiException e) {
+            final String code = e.getError() == null ? null : e.getError().getCode();
+            throw new TransactionException(code, "Transaction failed", e);
+        }
+    }
+}
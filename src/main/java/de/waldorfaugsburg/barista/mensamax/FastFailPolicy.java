@@ -0,0 +1,10 @@
+package de.waldorfaugsburg.barista.mensamax;
+
+// What happens to a payment while the circuit breaker refuses to contact MensaMax
+public enum FastFailPolicy {
+
+    // Cancel the vend and play the fast-fail sound
+    REJECT,
+    // Dispense anyway and book the transaction once MensaMax is back, requires settlement
+    DISPENSE
+}
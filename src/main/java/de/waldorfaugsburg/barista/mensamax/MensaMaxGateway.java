@@ -0,0 +1,6 @@
+package de.waldorfaugsburg.barista.mensamax;
+
+public interface MensaMaxGateway {
+
+    void transaction(String chipId, String kiosk, long barcode) throws TransactionException;
+}
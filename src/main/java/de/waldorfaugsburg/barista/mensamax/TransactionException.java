@@ -0,0 +1,20 @@
+package de.waldorfaugsburg.barista.mensamax;
+
+public class TransactionException extends Exception {
+
+    private final String code;
+
+    public TransactionException(final String code, final String message, final Throwable cause) {
+        super(message, cause);
+        this.code = code;
+    }
+
+    public TransactionException(final String code, final String message) {
+        this(code, message, null);
+    }
+
+    // Error code given by MensaMax, null if no answer was received
+    public String getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,81 @@
+package de.waldorfaugsburg.barista.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class LatencyHistogram {
+
+    // Bucket upper bounds grow by 10% from 100µs up to about two minutes
+    private static final long[] BOUNDS_NANOS = createBounds();
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public void record(final long nanos) {
+        buckets.incrementAndGet(findBucket(nanos));
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    // Upper bound of the bucket containing the given quantile, zero if nothing was recorded
+    public long getQuantileNanos(final double quantile) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) return 0;
+
+        final long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return i < BOUNDS_NANOS.length ? BOUNDS_NANOS[i] : BOUNDS_NANOS[BOUNDS_NANOS.length - 1];
+            }
+        }
+        return BOUNDS_NANOS[BOUNDS_NANOS.length - 1];
+    }
+
+    private static int findBucket(final long nanos) {
+        int low = 0;
+        int high = BOUNDS_NANOS.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (BOUNDS_NANOS[middle] < nanos) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long[] createBounds() {
+        final long maxNanos = TimeUnit.MINUTES.toNanos(2);
+        int length = 0;
+        for (double bound = TimeUnit.MICROSECONDS.toNanos(100); bound < maxNanos; bound *= 1.1) {
+            length++;
+        }
+
+        final long[] bounds = new long[length];
+        double bound = TimeUnit.MICROSECONDS.toNanos(100);
+        for (int i = 0; i < length; i++, bound *= 1.1) {
+            bounds[i] = (long) bound;
+        }
+        return bounds;
+    }
+}
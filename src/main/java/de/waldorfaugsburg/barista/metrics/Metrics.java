@@ -0,0 +1,98 @@
+package de.waldorfaugsburg.barista.metrics;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final String lane;
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+    private final Map<String, LongAdder> apiErrors = new ConcurrentHashMap<>();
+
+    public Metrics(final String lane) {
+        this.lane = lane;
+        for (final Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+        for (final Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    public LatencyHistogram getHistogram(final Stage stage) {
+        return histograms.get(stage);
+    }
+
+    public void recordSince(final Stage stage, final long startNanos) {
+        histograms.get(stage).recordSince(startNanos);
+    }
+
+    public void count(final Outcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    public long getCount(final Outcome outcome) {
+        return outcomes.get(outcome).sum();
+    }
+
+    public void countApiError(final String code) {
+        count(Outcome.API_ERROR);
+        apiErrors.computeIfAbsent(code == null ? "UNKNOWN" : code, key -> new LongAdder()).increment();
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    public static void writePrometheus(final StringBuilder builder, final Collection<Metrics> laneMetrics) {
+        builder.append("# TYPE barista_stage_seconds summary\n");
+        for (final Metrics metrics : laneMetrics) {
+            final String lane = escape(metrics.lane);
+            for (final Map.Entry<Stage, LatencyHistogram> entry : metrics.histograms.entrySet()) {
+                final String stage = entry.getKey().name().toLowerCase(Locale.ROOT);
+                final LatencyHistogram histogram = entry.getValue();
+                for (final double quantile : QUANTILES) {
+                    builder.append("barista_stage_seconds{lane=\"").append(lane).append("\",stage=\"").append(stage)
+                            .append("\",quantile=\"").append(quantile).append("\"} ").append(toSeconds(histogram.getQuantileNanos(quantile))).append('\n');
+                }
+                builder.append("barista_stage_seconds_sum{lane=\"").append(lane).append("\",stage=\"").append(stage).append("\"} ")
+                        .append(toSeconds(histogram.getSumNanos())).append('\n');
+                builder.append("barista_stage_seconds_count{lane=\"").append(lane).append("\",stage=\"").append(stage).append("\"} ")
+                        .append(histogram.getCount()).append('\n');
+            }
+        }
+
+        builder.append("# TYPE barista_payments_total counter\n");
+        for (final Metrics metrics : laneMetrics) {
+            final String lane = escape(metrics.lane);
+            for (final Map.Entry<Outcome, LongAdder> entry : metrics.outcomes.entrySet()) {
+                builder.append("barista_payments_total{lane=\"").append(lane).append("\",outcome=\"")
+                        .append(entry.getKey().name().toLowerCase(Locale.ROOT)).append("\"} ").append(entry.getValue().sum()).append('\n');
+            }
+        }
+
+        builder.append("# TYPE barista_api_errors_total counter\n");
+        for (final Metrics metrics : laneMetrics) {
+            final String lane = escape(metrics.lane);
+            for (final Map.Entry<String, LongAdder> entry : metrics.apiErrors.entrySet()) {
+                builder.append("barista_api_errors_total{lane=\"").append(lane).append("\",code=\"").append(escape(entry.getKey())).append("\"} ")
+                        .append(entry.getValue().sum()).append('\n');
+            }
+        }
+    }
+
+    private static double toSeconds(final long nanos) {
+        return nanos / 1_000_000_000D;
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
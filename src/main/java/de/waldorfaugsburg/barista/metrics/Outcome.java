@@ -0,0 +1,18 @@
+package de.waldorfaugsburg.barista.metrics;
+
+public enum Outcome {
+
+    SUCCESS,
+    DEFERRED,
+    SERVICE,
+    FREE,
+    TIMEOUT,
+    INVALID_PRODUCT,
+    NO_STOCK,
+    CACHED_REJECTION,
+    API_ERROR,
+    UNAVAILABLE,
+    IGNORED,
+    ABANDONED,
+    ERROR
+}
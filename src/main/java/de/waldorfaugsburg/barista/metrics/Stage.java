@@ -0,0 +1,13 @@
+package de.waldorfaugsburg.barista.metrics;
+
+public enum Stage {
+
+    CHIP_TO_START_SOUND,
+    AWAIT_PRODUCT,
+    TRANSACTION,
+    CONFIRM_PAYMENT,
+    PAYMENT,
+    MDB_SEND,
+    MDB_ROUND_TRIP,
+    MDB_PROBE
+}
@@ -0,0 +1,101 @@
+package de.waldorfaugsburg.barista.payment;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.sound.Sound;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public final class ChipAccountCache {
+
+    // Refusals which depend on the price or the product and will not resolve themselves within the next few minutes
+    private static final Set<Sound> PRODUCT_REJECTIONS = EnumSet.of(Sound.ACCOUNT_OVERDRAWN, Sound.ACCOUNT_DAILY_LIMIT, Sound.RESTRICTED);
+
+    private final Cache<String, ChipAccount> cache;
+
+    public ChipAccountCache(final BaristaConfiguration.ChipCacheConfiguration configuration) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaximumSize())
+                .expireAfterWrite(configuration.getTtlMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    // Only an unknown chip is refused regardless of what is selected
+    public Sound findRejection(final String chipId) {
+        final ChipAccount account = cache.getIfPresent(chipId);
+        return account != null && account.invalid() ? Sound.INVALID_CHIP : null;
+    }
+
+    public Sound findRejection(final String chipId, final long barcode) {
+        final ChipAccount account = cache.getIfPresent(chipId);
+        if (account == null) return null;
+
+        final ProductRejection rejection = account.products().get(barcode);
+        if (rejection == null) return null;
+
+        if (System.currentTimeMillis() >= rejection.validUntil()) {
+            cache.asMap().computeIfPresent(chipId, (key, current) -> current.without(barcode));
+            return null;
+        }
+        return rejection.sound();
+    }
+
+    // A successful booking means the account may have been topped up, earlier refusals are void
+    public void authorized(final String chipId) {
+        cache.put(chipId, new ChipAccount(false, Map.of()));
+    }
+
+    public void rejected(final String chipId, final long barcode, final Sound rejection) {
+        if (rejection == Sound.INVALID_CHIP) {
+            cache.put(chipId, new ChipAccount(true, Map.of()));
+            return;
+        }
+        // Transient errors say nothing about the account, what is known about it stays valid
+        if (!PRODUCT_REJECTIONS.contains(rejection)) return;
+
+        // Daily limits are reset at midnight
+        long validUntil = Long.MAX_VALUE;
+        if (rejection == Sound.ACCOUNT_DAILY_LIMIT) {
+            validUntil = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        final ProductRejection productRejection = new ProductRejection(rejection, validUntil);
+        cache.asMap().merge(chipId, new ChipAccount(false, Map.of(barcode, productRejection)),
+                (current, added) -> current.with(barcode, productRejection));
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    // Immutable, updates replace the whole account in the cache
+    private record ChipAccount(boolean invalid, Map<Long, ProductRejection> products) {
+
+        private ChipAccount with(final long barcode, final ProductRejection rejection) {
+            final Map<Long, ProductRejection> updated = new HashMap<>(products);
+            updated.put(barcode, rejection);
+            return new ChipAccount(invalid, Map.copyOf(updated));
+        }
+
+        private ChipAccount without(final long barcode) {
+            final Map<Long, ProductRejection> updated = new HashMap<>(products);
+            updated.remove(barcode);
+            return new ChipAccount(invalid, Map.copyOf(updated));
+        }
+    }
+
+    private record ProductRejection(Sound sound, long validUntil) {
+    }
+}
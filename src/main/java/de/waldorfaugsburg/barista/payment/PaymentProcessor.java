@@ -1,130 +1,466 @@
 package de.waldorfaugsburg.barista.payment;
 
 import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.accounting.AccountedVend;
+import de.waldorfaugsburg.barista.accounting.AccountingExporter;
+import de.waldorfaugsburg.barista.chip.ChipDeduplicator;
+import de.waldorfaugsburg.barista.journal.VendJournal;
+import de.waldorfaugsburg.barista.lane.Lane;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.configuration.ConfigurationSnapshot;
+import de.waldorfaugsburg.barista.configuration.ProductTable;
+import de.waldorfaugsburg.barista.event.EventType;
 import de.waldorfaugsburg.barista.mdb.MDBProduct;
+import de.waldorfaugsburg.barista.mensamax.CircuitOpenException;
+import de.waldorfaugsburg.barista.mensamax.FastFailPolicy;
+import de.waldorfaugsburg.barista.mensamax.TransactionException;
+import de.waldorfaugsburg.barista.metrics.Metrics;
+import de.waldorfaugsburg.barista.metrics.Outcome;
+import de.waldorfaugsburg.barista.metrics.Stage;
 import de.waldorfaugsburg.barista.sound.Sound;
-import de.waldorfaugsburg.mensamax.client.api.ApiException;
+import de.waldorfaugsburg.barista.stock.StockTable;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 @Slf4j
 public final class PaymentProcessor implements AutoCloseable {
 
     private static final int WAIT_MILLIS = 3000;
 
     private final BaristaApplication application;
+    private final Lane lane;
+
+    // All transitions are executed on this scheduler, the chip thread only hands over scanned chips
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicReference<PaymentState> state = new AtomicReference<>(PaymentState.IDLE);
+    private final Thread chipThread;
+    private final ChipDeduplicator chipDeduplicator;
+    private volatile boolean freeMode;
 
-    private Thread paymentThread;
-    private boolean freeMode;
-    private long lastProductAwait;
+    // Incremented on every mode switch to discard callbacks of the previous mode, only accessed by the scheduler
+    private long generation;
 
-    public PaymentProcessor(final BaristaApplication application) {
+    public PaymentProcessor(final BaristaApplication application, final Lane lane) {
         this.application = application;
+        this.lane = lane;
+        final BaristaConfiguration.DeduplicationConfiguration deduplication = application.getConfiguration().getDeduplication();
+        this.chipDeduplicator = new ChipDeduplicator(deduplication.getCapacity(), deduplication.getPupilWindowMillis(),
+                deduplication.getServiceWindowMillis());
+        this.chipThread = new Thread(this::readChips, "chip-reader-" + lane.getName());
 
-        startPaymentThread();
-    }
-
-    private void startPaymentThread() {
-        if (paymentThread != null) {
-            log.info("Interrupting payment thread...");
-            paymentThread.interrupt();
-        }
-
-        paymentThread = new Thread(() -> {
-            while (!Thread.interrupted()) {
-                try {
-                    if (freeMode) {
-                        // It's necessary to wait a few seconds before awaiting the next product
-                        if (System.currentTimeMillis() - lastProductAwait > WAIT_MILLIS) {
-                            final MDBProduct product = application.getMdbInterface().awaitProduct(false);
-                            if (product != null) {
-                                application.getMdbInterface().confirmPayment(product);
-                                log.info("Successful request for product '{}' ({}€)", product.productId(), product.money());
-                            }
-
-                            lastProductAwait = System.currentTimeMillis();
-                        }
-                    } else {
-                        log.info("Awaiting chip...");
-                        final String chip = application.getChipReader().awaitChip();
-                        startPayment(chip);
-                    }
-                } catch (final InterruptedException ignored) {
-                    break;
-                } catch (final Exception e) {
-                    log.error("An error error while handling payment", e);
-                }
-            }
-            log.info("Payment thread was interrupted");
-        });
-        paymentThread.start();
+        scheduler.execute(this::enterReadyState);
+        chipThread.start();
     }
 
     @Override
     public void close() {
-        paymentThread.interrupt();
+        chipThread.interrupt();
+        scheduler.shutdownNow();
+        state.set(PaymentState.IDLE);
+    }
+
+    public PaymentState getState() {
+        return state.get();
+    }
+
+    public ChipDeduplicator.Statistics getDeduplicationStatistics() {
+        return chipDeduplicator.getStatistics();
+    }
+
+    public boolean isFreeMode() {
+        return freeMode;
+    }
+
+    public void setFreeMode(final boolean freeMode) {
+        scheduler.execute(() -> {
+            if (this.freeMode == freeMode) return;
+
+            this.freeMode = freeMode;
+            generation++;
+            transition(PaymentState.IDLE);
+            lane.getMdbInterface().stopSelection();
+
+            log.info(freeMode ? "[{}] Free-mode enabled" : "[{}] Free-mode disabled", lane.getName());
+            publish(EventType.FREE_MODE, null, null, Boolean.toString(freeMode));
+            play(Sound.SERVICE);
+            enterReadyState();
+        });
+    }
+
+    private void readChips() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final String chipId = lane.getChipSource().awaitChip();
+                if (!chipDeduplicator.accept(chipId, chipId.equals(application.getSnapshot().getServiceChipId()))) {
+                    log.debug("[{}] Suppressed repeated scan of '{}'", lane.getName(), chipId);
+                    continue;
+                }
+
+                // Wait for the payment to finish before reading the next chip
+                final CompletableFuture<Void> payment = new CompletableFuture<>();
+                scheduler.execute(() -> handleChip(chipId, payment));
+                payment.get();
+                chipDeduplicator.touch(chipId);
+            } catch (final InterruptedException e) {
+                break;
+            } catch (final Exception e) {
+                log.error("[{}] An error occurred while reading chip", lane.getName(), e);
+            }
+        }
+        log.info("[{}] Chip thread was interrupted", lane.getName());
+    }
+
+    private void enterReadyState() {
+        if (freeMode) {
+            awaitFreeSelection(generation);
+        } else {
+            transition(PaymentState.AWAITING_CHIP);
+            log.info("[{}] Awaiting chip...", lane.getName());
+        }
+    }
+
+    private void awaitFreeSelection(final long selectionGeneration) {
+        if (selectionGeneration != generation) return;
+
+        transition(PaymentState.AWAITING_SELECTION);
+        lane.getMdbInterface().awaitProduct(application.getSnapshot().getStartMoney(), 0).whenCompleteAsync((product, throwable) -> {
+            if (selectionGeneration != generation) return;
+
+            // Free vends are journaled like paid ones, just without a chip
+            final Vend vend = product == null ? null : new Vend(null, System.nanoTime(), lane.getMetrics(), application.getSnapshot());
+            try {
+                if (vend != null) {
+                    handleFreeSelection(vend, product);
+                }
+            } catch (final Exception e) {
+                lane.getMetrics().count(Outcome.ERROR);
+                if (vend != null) {
+                    endJournal(vend, Outcome.ERROR.name());
+                }
+                log.error("[{}] An error occurred while handling free request", lane.getName(), e);
+            }
+
+            // It's necessary to wait a few seconds before awaiting the next product
+            transition(PaymentState.COOLDOWN);
+            scheduler.schedule(() -> awaitFreeSelection(selectionGeneration), WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }, scheduler);
+    }
+
+    private void handleFreeSelection(final Vend vend, final MDBProduct product) {
+        final VendJournal journal = application.getVendJournal();
+        if (journal != null) {
+            vend.setJournalId(journal.begin(lane.getName(), null));
+        }
+
+        publish(EventType.SELECTION_RECEIVED, null, product, null);
+        if (isSoldOut(product)) {
+            lane.getMdbInterface().cancelPayment();
+            play(Sound.NO_STOCK);
+            lane.getMetrics().count(Outcome.NO_STOCK);
+            lane.getSales().cancel(product.productId(), Outcome.NO_STOCK.name());
+            publish(EventType.VEND_CANCELLED, null, product, Outcome.NO_STOCK.name());
+            endJournal(vend, Outcome.NO_STOCK.name());
+            log.info("[{}] Free request refused, product '{}' is sold out", lane.getName(), product.productId());
+            return;
+        }
+
+        if (journal != null) {
+            final ConfigurationSnapshot.LaneSnapshot laneConfiguration = vend.getConfiguration().getLane(lane.getName());
+            journal.select(vend.getJournalId(), product.productId(), product.money(), laneConfiguration.products().get(product.productId()));
+        }
+
+        transition(PaymentState.VENDING);
+        lane.getMdbInterface().confirmPayment(product).whenCompleteAsync((result, throwable) ->
+                endJournal(vend, Outcome.FREE.name()), scheduler);
+        lane.getMetrics().count(Outcome.FREE);
+        lane.getSales().vend(product.productId(), product.money(), false);
+        decrementStock(product);
+        account(AccountedVend.Type.FREE, null, product, vend.getConfiguration());
+        publish(EventType.VEND_CONFIRMED, null, product, Outcome.FREE.name());
+        log.info("[{}] Successful request for product '{}' ({}€)", lane.getName(), product.productId(), product.money());
     }
 
-    private void startPayment(final String chipId) throws Exception {
-        Sound sound = application.getConfiguration().getSounds().get(chipId);
+    private void handleChip(final String chipId, final CompletableFuture<Void> payment) {
+        if (!transition(PaymentState.AWAITING_CHIP, PaymentState.AWAITING_SELECTION)) {
+            lane.getMetrics().count(Outcome.IGNORED);
+            log.info("[{}] Ignoring chip '{}' while {}", lane.getName(), chipId, state.get());
+            payment.complete(null);
+            return;
+        }
+
+        final long paymentGeneration = generation;
+        final Metrics metrics = lane.getMetrics();
+        final ConfigurationSnapshot configuration = application.getSnapshot();
+        final Vend vend = new Vend(chipId, System.nanoTime(), metrics, configuration);
+        publish(EventType.CHIP_SCANNED, chipId, null, null);
+
+        // Every scan is journaled, whatever ends the payment records its outcome
+        final VendJournal journal = application.getVendJournal();
+        if (journal != null) {
+            vend.setJournalId(journal.begin(lane.getName(), chipId));
+        }
+
+        // Reject unknown chips before the customer makes a selection
+        final Sound rejection = application.getChipAccountCache().findRejection(chipId);
+        if (rejection != null) {
+            play(rejection);
+            metrics.count(Outcome.CACHED_REJECTION);
+            publish(EventType.AUTHORIZATION, chipId, null, rejection.name());
+            endJournal(vend, Outcome.CACHED_REJECTION.name());
+            log.info("[{}] Payment for '{}' rejected by cached account state '{}'", lane.getName(), chipId, rejection.name());
+            enterReadyState();
+            payment.complete(null);
+            return;
+        }
+
+        Sound sound = configuration.getSound(chipId);
         if (sound == null) {
             sound = Sound.START;
         }
-        application.getSoundPlayer().play(sound);
+        // Timed until the audio actually starts, queueing the sound takes no time at all
+        play(sound).thenAcceptAsync(audioNanos -> vend.record(Stage.CHIP_TO_START_SOUND, audioNanos - vend.getStartNanos()), scheduler);
+
+        final long awaitNanos = System.nanoTime();
+        lane.getMdbInterface().awaitProduct(configuration.getStartMoney(), configuration.getMdbTimeoutMillis()).whenCompleteAsync((product, throwable) -> {
+            try {
+                if (paymentGeneration != generation) {
+                    // Released by a mode switch, no product can be selected anymore
+                    metrics.count(Outcome.ABANDONED);
+                    endJournal(vend, Outcome.ABANDONED.name());
+                    return;
+                }
+                if (throwable != null) {
+                    log.warn("[{}] Cashless device did not start payment for '{}'", lane.getName(), chipId);
+                }
+
+                vend.recordSince(Stage.AWAIT_PRODUCT, awaitNanos);
+                handleSelection(vend, product);
+                enterReadyState();
+            } catch (final Exception e) {
+                log.error("[{}] An error occurred while handling payment", lane.getName(), e);
+                metrics.count(Outcome.ERROR);
+                endJournal(vend, Outcome.ERROR.name());
+                enterReadyState();
+            } finally {
+                payment.complete(null);
+            }
+        }, scheduler);
+    }
 
-        final MDBProduct product = application.getMdbInterface().awaitProduct(true);
+    private void handleSelection(final Vend vend, final MDBProduct product) {
+        final Metrics metrics = lane.getMetrics();
+        final String chipId = vend.getChipId();
         if (product == null) {
-            application.getMdbInterface().stopSelection();
-            application.getSoundPlayer().play(Sound.TIMEOUT);
-            log.info("Payment for '{}' timed out", chipId);
+            lane.getMdbInterface().stopSelection();
+            play(Sound.TIMEOUT);
+            metrics.count(Outcome.TIMEOUT);
+            publish(EventType.VEND_CANCELLED, chipId, null, Outcome.TIMEOUT.name());
+            endJournal(vend, Outcome.TIMEOUT.name());
+            log.info("[{}] Payment for '{}' timed out", lane.getName(), chipId);
             return;
         }
 
+        publish(EventType.SELECTION_RECEIVED, chipId, product, null);
+
         // Get corresponding product barcode
-        final Long productBarcode = application.getConfiguration().getProducts().get(product.productId());
-        if (productBarcode == null) {
-            application.getMdbInterface().cancelPayment();
-            application.getSoundPlayer().play(Sound.INVALID_PRODUCT);
-            log.error("Payment for '{}' with invalid product id '{}' requested", chipId, product.productId());
+        final ConfigurationSnapshot.LaneSnapshot laneConfiguration = vend.getConfiguration().getLane(lane.getName());
+        final long productBarcode = laneConfiguration.products().get(product.productId());
+        if (productBarcode == ProductTable.MISSING) {
+            lane.getMdbInterface().cancelPayment();
+            play(Sound.INVALID_PRODUCT);
+            metrics.count(Outcome.INVALID_PRODUCT);
+            lane.getSales().cancel(product.productId(), Outcome.INVALID_PRODUCT.name());
+            publish(EventType.VEND_CANCELLED, chipId, product, Outcome.INVALID_PRODUCT.name());
+            endJournal(vend, Outcome.INVALID_PRODUCT.name());
+            log.error("[{}] Payment for '{}' with invalid product id '{}' requested", lane.getName(), chipId, product.productId());
             return;
         }
 
+        // An empty slot is refused before anything is booked
+        if (isSoldOut(product)) {
+            lane.getMdbInterface().cancelPayment();
+            play(Sound.NO_STOCK);
+            metrics.count(Outcome.NO_STOCK);
+            lane.getSales().cancel(product.productId(), Outcome.NO_STOCK.name());
+            publish(EventType.VEND_CANCELLED, chipId, product, Outcome.NO_STOCK.name());
+            endJournal(vend, Outcome.NO_STOCK.name());
+            log.info("[{}] Payment for '{}' refused, product '{}' is sold out", lane.getName(), chipId, product.productId());
+            return;
+        }
+
+        // Journaled before anything is booked so that an interrupted vend can be reconciled
+        final VendJournal journal = application.getVendJournal();
+        if (journal != null && vend.getJournalId() != -1) {
+            journal.select(vend.getJournalId(), product.productId(), product.money(), productBarcode);
+        }
+
         // Check if is service chip
-        if (!application.getConfiguration().getServiceChipId().equals(chipId)) {
-            try {
-                application.getMensaMaxClient().transaction(chipId, application.getConfiguration().getMensaMax().getKiosk(), productBarcode);
-            } catch (final ApiException e) {
-                application.getMdbInterface().cancelPayment();
+        if (vend.getConfiguration().getServiceChipId().equals(chipId)) {
+            play(Sound.SERVICE);
+            confirmPayment(vend, product, Outcome.SERVICE);
+            account(AccountedVend.Type.SERVICE, chipId, product, vend.getConfiguration());
+            log.info("[{}] Successful service request by '{}' for product '{}' ({}€)", lane.getName(), chipId, product.productId(), product.money());
+            return;
+        }
 
-                Sound errorSound;
-                if (e.getError() == null || (errorSound = Sound.findByName(e.getError().getCode())) == null) {
-                    errorSound = Sound.UNKNOWN_ERROR;
-                }
-                application.getSoundPlayer().play(errorSound);
-                log.error("Transaction by '{}' for product '{}' ({}€) failed", chipId, product.productId(), product.money(), e);
-                return;
+        // Refusals of this product are only known once it was selected
+        final Sound rejection = application.getChipAccountCache().findRejection(chipId, productBarcode);
+        if (rejection != null) {
+            lane.getMdbInterface().cancelPayment();
+            play(rejection);
+            metrics.count(Outcome.CACHED_REJECTION);
+            lane.getSales().cancel(product.productId(), Outcome.CACHED_REJECTION.name());
+            publish(EventType.AUTHORIZATION, chipId, product, rejection.name());
+            publish(EventType.VEND_CANCELLED, chipId, product, Outcome.CACHED_REJECTION.name());
+            endJournal(vend, Outcome.CACHED_REJECTION.name());
+            log.info("[{}] Payment for '{}' and product '{}' rejected by cached account state '{}'", lane.getName(), chipId, product.productId(), rejection.name());
+            return;
+        }
+
+        transition(PaymentState.AUTHORIZING);
+        final String kiosk = laneConfiguration.kiosk();
+        final TransactionQueue transactionQueue = application.getTransactionQueue();
+
+        // Known chips with enough headroom are booked in the background
+        if (transactionQueue != null && transactionQueue.enqueue(chipId, kiosk, productBarcode, product)) {
+            confirmPayment(vend, product, Outcome.DEFERRED);
+            log.info("[{}] Deferred transaction by '{}' for product '{}' ({}€)", lane.getName(), chipId, product.productId(), product.money());
+            return;
+        }
+
+        final long transactionNanos = System.nanoTime();
+        try {
+            application.getMensaMax().transaction(chipId, kiosk, productBarcode);
+            vend.recordSince(Stage.TRANSACTION, transactionNanos);
+            publish(EventType.AUTHORIZATION, chipId, product, Outcome.SUCCESS.name());
+            application.getChipAccountCache().authorized(chipId);
+            if (transactionQueue != null) {
+                transactionQueue.markKnown(chipId);
             }
-        } else {
-            application.getSoundPlayer().play(Sound.SERVICE);
+        } catch (final CircuitOpenException e) {
+            handleUnavailable(vend, kiosk, productBarcode, product);
+            return;
+        } catch (final TransactionException e) {
+            vend.recordSince(Stage.TRANSACTION, transactionNanos);
+            metrics.countApiError(e.getCode());
+            lane.getMdbInterface().cancelPayment();
+            final String error = e.getCode() == null ? Outcome.API_ERROR.name() : e.getCode();
+            lane.getSales().cancel(product.productId(), error);
+            publish(EventType.AUTHORIZATION, chipId, product, error);
+            publish(EventType.VEND_CANCELLED, chipId, product, error);
+            endJournal(vend, error);
+
+            Sound errorSound;
+            if (e.getCode() == null || (errorSound = Sound.findByName(e.getCode())) == null) {
+                errorSound = Sound.UNKNOWN_ERROR;
+            }
+            application.getChipAccountCache().rejected(chipId, productBarcode, errorSound);
+            play(errorSound);
+            log.error("[{}] Transaction by '{}' for product '{}' ({}€) failed", lane.getName(), chipId, product.productId(), product.money(), e);
+            return;
         }
 
-        application.getMdbInterface().confirmPayment(product);
-        log.info("Successful transaction by '{}' for product '{}' ({}€)", chipId, product.productId(), product.money());
+        confirmPayment(vend, product, Outcome.SUCCESS);
+        log.info("[{}] Successful transaction by '{}' for product '{}' ({}€)", lane.getName(), chipId, product.productId(), product.money());
     }
 
-    public boolean isFreeMode() {
-        return freeMode;
+    private void handleUnavailable(final Vend vend, final String kiosk, final long productBarcode, final MDBProduct product) {
+        final BaristaConfiguration.CircuitBreakerConfiguration configuration = application.getConfiguration().getCircuitBreaker();
+        final TransactionQueue transactionQueue = application.getTransactionQueue();
+        final String chipId = vend.getChipId();
+        if (configuration.getFastFailPolicy() == FastFailPolicy.DISPENSE && transactionQueue != null
+                && transactionQueue.enqueueUnverified(chipId, kiosk, productBarcode, product)) {
+            confirmPayment(vend, product, Outcome.DEFERRED);
+            log.warn("[{}] MensaMax unavailable, deferred transaction by '{}' for product '{}' ({}€)", lane.getName(), chipId, product.productId(), product.money());
+            return;
+        }
+
+        // Not cached as rejection, the account itself may be perfectly fine
+        lane.getMdbInterface().cancelPayment();
+        play(configuration.getFastFailSound());
+        lane.getMetrics().count(Outcome.UNAVAILABLE);
+        lane.getSales().cancel(product.productId(), Outcome.UNAVAILABLE.name());
+        publish(EventType.AUTHORIZATION, chipId, product, Outcome.UNAVAILABLE.name());
+        publish(EventType.VEND_CANCELLED, chipId, product, Outcome.UNAVAILABLE.name());
+        endJournal(vend, Outcome.UNAVAILABLE.name());
+        log.warn("[{}] MensaMax unavailable, payment by '{}' for product '{}' ({}€) failed fast", lane.getName(), chipId, product.productId(), product.money());
     }
 
-    public void setFreeMode(final boolean freeMode) {
-        final boolean previouslyEnabled = this.freeMode;
-        this.freeMode = freeMode;
+    private void confirmPayment(final Vend vend, final MDBProduct product, final Outcome outcome) {
+        transition(PaymentState.VENDING);
+
+        // Timed until the device acknowledged the vend, the outcome is journaled once all timings are known
+        final long confirmNanos = System.nanoTime();
+        lane.getMdbInterface().confirmPayment(product).whenCompleteAsync((result, throwable) -> {
+            if (throwable == null) {
+                vend.recordSince(Stage.CONFIRM_PAYMENT, confirmNanos);
+                vend.recordSince(Stage.PAYMENT, vend.getStartNanos());
+            }
+            endJournal(vend, outcome.name());
+        }, scheduler);
+        lane.getMetrics().count(outcome);
+        lane.getSales().vend(product.productId(), product.money(), outcome != Outcome.SERVICE);
+        decrementStock(product);
+        publish(EventType.VEND_CONFIRMED, vend.getChipId(), product, outcome.name());
+    }
+
+    // Vends without a booking are exported for accounting in batches, never with a call per vend
+    private void account(final AccountedVend.Type type, final String chipId, final MDBProduct product, final ConfigurationSnapshot configuration) {
+        final AccountingExporter exporter = application.getAccountingExporter();
+        if (exporter != null) {
+            final long barcode = configuration.getLane(lane.getName()).products().get(product.productId());
+            exporter.record(new AccountedVend(System.currentTimeMillis(), lane.getName(), type, chipId, product.productId(), barcode, product.money()));
+        }
+    }
 
-        if (previouslyEnabled != freeMode) {
-            application.getMdbInterface().stopSelection();
-            startPaymentThread();
+    private CompletableFuture<Long> play(final Sound sound) {
+        return application.getSoundPlayer().play(lane.getName(), sound);
+    }
+
+    private boolean isSoldOut(final MDBProduct product) {
+        final StockTable stockTable = application.getStockTable();
+        return stockTable != null && stockTable.isSoldOut(lane.getName(), product.productId());
+    }
+
+    private void decrementStock(final MDBProduct product) {
+        final StockTable stockTable = application.getStockTable();
+        if (stockTable != null) {
+            stockTable.decrement(lane.getName(), product.productId());
+        }
+    }
+
+    private void publish(final EventType type, final String chipId, final MDBProduct product, final String detail) {
+        application.getEventRing().publish(type, lane.getName(), chipId, product, detail);
+    }
+
+    private void endJournal(final Vend vend, final String outcome) {
+        final VendJournal journal = application.getVendJournal();
+        if (journal != null && vend.getJournalId() != -1) {
+            journal.end(vend.getJournalId(), outcome, vend.getStageMicros());
+            vend.setJournalId(-1);
+        }
+    }
 
-            log.info(freeMode ? "Free-mode enabled" : "Free-mode disabled");
-            application.getSoundPlayer().play(Sound.SERVICE);
+    private boolean transition(final PaymentState next) {
+        return transition(state.get(), next);
+    }
+
+    // Illegal transitions and ones racing with another transition are refused, the state is left as it is
+    private boolean transition(final PaymentState expected, final PaymentState next) {
+        if (!expected.canTransitionTo(next)) {
+            log.error("[{}] Refusing illegal payment state transition {} -> {}", lane.getName(), expected, next);
+            return false;
+        }
+        if (!state.compareAndSet(expected, next)) {
+            log.debug("[{}] Payment state is not {} anymore, not entering {}", lane.getName(), expected, next);
+            return false;
         }
+        log.debug("[{}] Payment state {} -> {}", lane.getName(), expected, next);
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package de.waldorfaugsburg.barista.payment;
+
+public enum PaymentState {
+
+    IDLE,
+    AWAITING_CHIP,
+    AWAITING_SELECTION,
+    AUTHORIZING,
+    VENDING,
+    COOLDOWN;
+
+    public boolean canTransitionTo(final PaymentState next) {
+        // Mode switches and shutdown reset from any state
+        if (next == IDLE) return true;
+
+        return switch (this) {
+            case IDLE -> next == AWAITING_CHIP || next == AWAITING_SELECTION;
+            case AWAITING_CHIP -> next == AWAITING_SELECTION;
+            case AWAITING_SELECTION -> next == AUTHORIZING || next == VENDING || next == AWAITING_CHIP || next == COOLDOWN;
+            case AUTHORIZING -> next == VENDING || next == AWAITING_CHIP;
+            case VENDING -> next == AWAITING_CHIP || next == COOLDOWN;
+            case COOLDOWN -> next == AWAITING_SELECTION;
+        };
+    }
+}
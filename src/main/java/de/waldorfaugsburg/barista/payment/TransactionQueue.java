@@ -0,0 +1,261 @@
+package de.waldorfaugsburg.barista.payment;
+
+import com.google.gson.Gson;
+import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.mdb.MDBProduct;
+import de.waldorfaugsburg.barista.mensamax.TransactionException;
+import de.waldorfaugsburg.barista.sound.Sound;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public final class TransactionQueue implements AutoCloseable {
+
+    private final BaristaApplication application;
+    private final BaristaConfiguration.SettlementConfiguration configuration;
+    private final Gson gson = new Gson();
+    private final Path journalPath;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Insertion ordered so that transactions are settled in the order they were dispensed
+    private final Map<String, Entry> pendingEntries = new LinkedHashMap<>();
+    private final Map<String, Double> pendingMoney = new HashMap<>();
+    private final Set<String> knownChips = new HashSet<>();
+
+    private FileChannel journal;
+    private long retryMillis;
+
+    // Guarded by this, only a single settle run or pending retry exists at a time
+    private boolean settleScheduled;
+
+    public TransactionQueue(final BaristaApplication application) throws IOException {
+        this.application = application;
+        this.configuration = application.getConfiguration().getSettlement();
+        this.journalPath = Path.of(configuration.getJournalPath());
+        this.retryMillis = configuration.getRetryMillis();
+
+        replayJournal();
+        compactJournal();
+        this.journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        log.info("Transaction queue recovered {} unsettled transaction(s) and {} known chip(s)", pendingEntries.size(), knownChips.size());
+        scheduleSettle();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            journal.close();
+        }
+    }
+
+    public synchronized boolean enqueue(final String chipId, final String kiosk, final long barcode, final MDBProduct product) {
+        // Only chips which were successfully booked before are allowed to defer their booking
+        if (!knownChips.contains(chipId)) return false;
+
+        return enqueueUnverified(chipId, kiosk, barcode, product);
+    }
+
+    // Defers the booking of a chip that MensaMax never confirmed, used while MensaMax is unreachable
+    public synchronized boolean enqueueUnverified(final String chipId, final String kiosk, final long barcode, final MDBProduct product) {
+        final double pending = pendingMoney.getOrDefault(chipId, 0D);
+        if (pending + product.money() > configuration.getMaxPendingMoney()) return false;
+
+        final Entry entry = new Entry(EntryType.PENDING, UUID.randomUUID().toString(), chipId, kiosk, barcode,
+                product.productId(), product.money(), System.currentTimeMillis(), null);
+        try {
+            append(entry);
+        } catch (final IOException e) {
+            log.error("An error occurred while journaling transaction by '{}'", chipId, e);
+            return false;
+        }
+
+        addPending(entry);
+        scheduleSettle();
+        return true;
+    }
+
+    public synchronized void markKnown(final String chipId) {
+        if (!knownChips.add(chipId)) return;
+
+        try {
+            append(new Entry(EntryType.KNOWN, null, chipId, null, 0, 0, 0, System.currentTimeMillis(), null));
+        } catch (final IOException e) {
+            log.error("An error occurred while journaling known chip '{}'", chipId, e);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingEntries.size();
+    }
+
+    private void settle() {
+        while (true) {
+            final Entry entry;
+            synchronized (this) {
+                if (pendingEntries.isEmpty()) {
+                    settleScheduled = false;
+                    return;
+                }
+                entry = pendingEntries.values().iterator().next();
+            }
+
+            try {
+                application.getMensaMax().transaction(entry.chipId(), entry.kiosk(), entry.barcode());
+                complete(entry, EntryType.SETTLED, null);
+                application.getChipAccountCache().authorized(entry.chipId());
+                log.info("Settled transaction '{}' by '{}' for product '{}' ({}€)", entry.id(), entry.chipId(), entry.productId(), entry.money());
+            } catch (final TransactionException e) {
+                if (e.getCode() == null) {
+                    // No answer from MensaMax, try again later
+                    log.warn("Settlement of transaction '{}' failed, retrying in {}ms", entry.id(), retryMillis, e);
+                    scheduleRetry();
+                    return;
+                }
+
+                // The booking was refused, the product has already been dispensed though
+                complete(entry, EntryType.REJECTED, e.getCode());
+                final Sound rejection = Sound.findByName(e.getCode());
+                if (rejection != null) {
+                    application.getChipAccountCache().rejected(entry.chipId(), entry.barcode(), rejection);
+                }
+                log.error("Transaction '{}' by '{}' for product '{}' ({}€) was rejected with '{}'",
+                        entry.id(), entry.chipId(), entry.productId(), entry.money(), e.getCode());
+            } catch (final Exception e) {
+                log.error("An error occurred while settling transaction '{}', retrying in {}ms", entry.id(), retryMillis, e);
+                scheduleRetry();
+                return;
+            }
+
+            retryMillis = configuration.getRetryMillis();
+        }
+    }
+
+    // A pending retry is not cut short by new entries, they are settled once it runs
+    private synchronized void scheduleSettle() {
+        if (settleScheduled) return;
+
+        settleScheduled = true;
+        scheduler.execute(this::settle);
+    }
+
+    private void scheduleRetry() {
+        scheduler.schedule(this::settle, retryMillis, TimeUnit.MILLISECONDS);
+        retryMillis = Math.min(retryMillis * 2, configuration.getMaxRetryMillis());
+    }
+
+    private synchronized void complete(final Entry entry, final EntryType type, final String error) {
+        removePending(entry.id());
+        if (type == EntryType.REJECTED) {
+            knownChips.remove(entry.chipId());
+        }
+
+        try {
+            // Completions reference the idempotency key of their entry, so a replay never books it twice
+            append(new Entry(type, entry.id(), entry.chipId(), null, 0, 0, 0, System.currentTimeMillis(), error));
+        } catch (final IOException e) {
+            log.error("An error occurred while journaling completion of transaction '{}'", entry.id(), e);
+        }
+    }
+
+    private void addPending(final Entry entry) {
+        pendingEntries.put(entry.id(), entry);
+        pendingMoney.merge(entry.chipId(), entry.money(), Double::sum);
+    }
+
+    private void removePending(final String id) {
+        final Entry entry = pendingEntries.remove(id);
+        if (entry == null) return;
+
+        pendingMoney.computeIfPresent(entry.chipId(), (chipId, money) -> money - entry.money() > 0.001 ? money - entry.money() : null);
+    }
+
+    private void append(final Entry entry) throws IOException {
+        final byte[] line = (gson.toJson(entry) + '\n').getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    private void replayJournal() throws IOException {
+        if (!Files.exists(journalPath)) return;
+
+        try (final BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+
+                final Entry entry;
+                try {
+                    entry = gson.fromJson(line, Entry.class);
+                } catch (final RuntimeException e) {
+                    // A torn write at the end of the journal after a power loss
+                    log.warn("Skipping unreadable journal line: {}", line);
+                    continue;
+                }
+
+                if (entry == null || entry.type() == null) {
+                    log.warn("Skipping journal line without known type: {}", line);
+                    continue;
+                }
+
+                switch (entry.type()) {
+                    case KNOWN -> knownChips.add(entry.chipId());
+                    case PENDING -> addPending(entry);
+                    case SETTLED -> removePending(entry.id());
+                    case REJECTED -> {
+                        removePending(entry.id());
+                        knownChips.remove(entry.chipId());
+                    }
+                }
+            }
+        }
+    }
+
+    private void compactJournal() throws IOException {
+        final Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(compactedPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            journal = channel;
+            for (final String chipId : knownChips) {
+                append(new Entry(EntryType.KNOWN, null, chipId, null, 0, 0, 0, System.currentTimeMillis(), null));
+            }
+            for (final Entry entry : pendingEntries.values()) {
+                append(entry);
+            }
+        }
+        Files.move(compactedPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private enum EntryType {
+        KNOWN,
+        PENDING,
+        SETTLED,
+        REJECTED
+    }
+
+    private record Entry(EntryType type, String id, String chipId, String kiosk, long barcode, int productId,
+                         double money, long timestamp, String error) {
+    }
+}
@@ -0,0 +1,61 @@
+package de.waldorfaugsburg.barista.payment;
+
+import de.waldorfaugsburg.barista.configuration.ConfigurationSnapshot;
+import de.waldorfaugsburg.barista.metrics.Metrics;
+import de.waldorfaugsburg.barista.metrics.Stage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// State of a single payment from chip scan to outcome, only accessed by the scheduler of its lane
+final class Vend {
+
+    private final String chipId;
+    private final long startNanos;
+    private final Metrics metrics;
+    private final ConfigurationSnapshot configuration;
+    private final Map<Stage, Long> stageMicros = new EnumMap<>(Stage.class);
+    private long journalId = -1;
+
+    Vend(final String chipId, final long startNanos, final Metrics metrics, final ConfigurationSnapshot configuration) {
+        this.chipId = chipId;
+        this.startNanos = startNanos;
+        this.metrics = metrics;
+        this.configuration = configuration;
+    }
+
+    void recordSince(final Stage stage, final long sinceNanos) {
+        record(stage, System.nanoTime() - sinceNanos);
+    }
+
+    void record(final Stage stage, final long nanos) {
+        metrics.getHistogram(stage).record(nanos);
+        stageMicros.put(stage, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    String getChipId() {
+        return chipId;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    // Taken at the chip scan, a reload in the meantime does not change the product or kiosk of a started vend
+    ConfigurationSnapshot getConfiguration() {
+        return configuration;
+    }
+
+    Map<Stage, Long> getStageMicros() {
+        return stageMicros;
+    }
+
+    long getJournalId() {
+        return journalId;
+    }
+
+    void setJournalId(final long journalId) {
+        this.journalId = journalId;
+    }
+}
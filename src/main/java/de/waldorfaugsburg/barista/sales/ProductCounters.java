@@ -0,0 +1,47 @@
+package de.waldorfaugsburg.barista.sales;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Revenue is counted in cents so that concurrent additions stay exact
+final class ProductCounters {
+
+    private final LongAdder vends = new LongAdder();
+    private final LongAdder freeVends = new LongAdder();
+    private final LongAdder revenueCents = new LongAdder();
+    private final LongAdder cancels = new LongAdder();
+    private final Map<String, LongAdder> cancelReasons = new ConcurrentHashMap<>();
+
+    void vend(final double money, final boolean paid) {
+        if (paid) {
+            vends.increment();
+            revenueCents.add(Math.round(money * 100));
+        } else {
+            freeVends.increment();
+        }
+    }
+
+    void cancel(final String reason) {
+        cancels.increment();
+        cancelReasons.computeIfAbsent(reason, key -> new LongAdder()).increment();
+    }
+
+    void add(final SalesReport.ProductSales sales) {
+        vends.add(sales.vends());
+        freeVends.add(sales.freeVends());
+        revenueCents.add(Math.round(sales.revenue() * 100));
+        cancels.add(sales.cancels());
+        if (sales.cancelReasons() != null) {
+            sales.cancelReasons().forEach((reason, count) -> cancelReasons.computeIfAbsent(reason, key -> new LongAdder()).add(count));
+        }
+    }
+
+    SalesReport.ProductSales toSales(final int productId, final long barcode) {
+        final Map<String, Long> reasons = new TreeMap<>();
+        cancelReasons.forEach((reason, count) -> reasons.put(reason, count.sum()));
+        return new SalesReport.ProductSales(productId, barcode, vends.sum(), freeVends.sum(), revenueCents.sum() / 100D,
+                cancels.sum(), reasons);
+    }
+}
@@ -0,0 +1,147 @@
+package de.waldorfaugsburg.barista.sales;
+
+import de.waldorfaugsburg.barista.configuration.ProductTable;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Sales of one lane per product, as total since the first snapshot and in hourly and daily periods
+public final class SalesCounters {
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final String lane;
+    private final int retainedHours;
+    private final int retainedDays;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final SalesPeriod total = new SalesPeriod(0, Long.MAX_VALUE);
+
+    // Replaced on rollover, closed periods are kept with the newest last, guarded by this
+    private volatile SalesPeriod hour;
+    private volatile SalesPeriod day;
+    private final Deque<SalesPeriod> hours = new ArrayDeque<>();
+    private final Deque<SalesPeriod> days = new ArrayDeque<>();
+
+    public SalesCounters(final String lane, final int retainedHours, final int retainedDays) {
+        this.lane = lane;
+        this.retainedHours = retainedHours;
+        this.retainedDays = retainedDays;
+
+        final long now = System.currentTimeMillis();
+        this.hour = createHour(now);
+        this.day = createDay(now);
+    }
+
+    // Paid vends count towards the revenue, free-mode and service vends only towards the free vends
+    public void vend(final int productId, final double money, final boolean paid) {
+        final long now = System.currentTimeMillis();
+        total.get(productId).vend(money, paid);
+        currentHour(now).get(productId).vend(money, paid);
+        currentDay(now).get(productId).vend(money, paid);
+    }
+
+    public void cancel(final int productId, final String reason) {
+        final long now = System.currentTimeMillis();
+        total.get(productId).cancel(reason);
+        currentHour(now).get(productId).cancel(reason);
+        currentDay(now).get(productId).cancel(reason);
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    public SalesReport.LaneSales report(final ProductTable barcodes) {
+        final long now = System.currentTimeMillis();
+        currentHour(now);
+        currentDay(now);
+
+        final List<SalesReport.Period> hourPeriods = new ArrayList<>();
+        final List<SalesReport.Period> dayPeriods = new ArrayList<>();
+        synchronized (this) {
+            for (final SalesPeriod period : hours) {
+                hourPeriods.add(period.toPeriod(barcodes));
+            }
+            hourPeriods.add(hour.toPeriod(barcodes));
+            for (final SalesPeriod period : days) {
+                dayPeriods.add(period.toPeriod(barcodes));
+            }
+            dayPeriods.add(day.toPeriod(barcodes));
+        }
+        return new SalesReport.LaneSales(lane, total.toPeriod(barcodes), hourPeriods, dayPeriods);
+    }
+
+    // Adds the sales of a previous run, periods which are still running continue counting
+    public synchronized void restore(final SalesReport.LaneSales sales) {
+        total.add(sales.total());
+        restore(sales.hours(), hour, hours, retainedHours);
+        restore(sales.days(), day, days, retainedDays);
+    }
+
+    private void restore(final List<SalesReport.Period> periods, final SalesPeriod current, final Deque<SalesPeriod> closed, final int retained) {
+        final List<SalesPeriod> restored = new ArrayList<>();
+        for (final SalesReport.Period period : periods) {
+            if (period.start() == current.getStart()) {
+                current.add(period);
+            } else if (period.end() <= current.getStart()) {
+                restored.add(SalesPeriod.restore(period));
+            }
+        }
+
+        for (int i = restored.size() - 1; i >= 0; i--) {
+            closed.addFirst(restored.get(i));
+        }
+        while (closed.size() > retained) {
+            closed.removeFirst();
+        }
+    }
+
+    private SalesPeriod currentHour(final long now) {
+        final SalesPeriod period = hour;
+        if (period.contains(now)) return period;
+
+        synchronized (this) {
+            if (!hour.contains(now)) {
+                hours.addLast(hour);
+                while (hours.size() > retainedHours) {
+                    hours.removeFirst();
+                }
+                hour = createHour(now);
+            }
+            return hour;
+        }
+    }
+
+    private SalesPeriod currentDay(final long now) {
+        final SalesPeriod period = day;
+        if (period.contains(now)) return period;
+
+        synchronized (this) {
+            if (!day.contains(now)) {
+                days.addLast(day);
+                while (days.size() > retainedDays) {
+                    days.removeFirst();
+                }
+                day = createDay(now);
+            }
+            return day;
+        }
+    }
+
+    private static SalesPeriod createHour(final long now) {
+        final long start = now - Math.floorMod(now, HOUR_MILLIS);
+        return new SalesPeriod(start, start + HOUR_MILLIS);
+    }
+
+    private SalesPeriod createDay(final long now) {
+        final LocalDate date = Instant.ofEpochMilli(now).atZone(zone).toLocalDate();
+        return new SalesPeriod(date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+    }
+}
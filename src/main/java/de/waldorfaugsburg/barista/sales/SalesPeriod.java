@@ -0,0 +1,60 @@
+package de.waldorfaugsburg.barista.sales;
+
+import de.waldorfaugsburg.barista.configuration.ProductTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Counters of all products within [start, end), late additions after a rollover still land in the closed period
+final class SalesPeriod {
+
+    private final long start;
+    private final long end;
+    private final Map<Integer, ProductCounters> products = new ConcurrentHashMap<>();
+
+    SalesPeriod(final long start, final long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    static SalesPeriod restore(final SalesReport.Period period) {
+        final SalesPeriod restored = new SalesPeriod(period.start(), period.end());
+        restored.add(period);
+        return restored;
+    }
+
+    ProductCounters get(final int productId) {
+        final ProductCounters counters = products.get(productId);
+        return counters != null ? counters : products.computeIfAbsent(productId, key -> new ProductCounters());
+    }
+
+    void add(final SalesReport.Period period) {
+        for (final SalesReport.ProductSales sales : period.products()) {
+            get(sales.productId()).add(sales);
+        }
+    }
+
+    boolean contains(final long time) {
+        return time >= start && time < end;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    SalesReport.Period toPeriod(final ProductTable barcodes) {
+        final List<SalesReport.ProductSales> sales = new ArrayList<>(products.size());
+        for (final Map.Entry<Integer, ProductCounters> entry : new TreeMap<>(products).entrySet()) {
+            final long barcode = barcodes == null ? ProductTable.MISSING : barcodes.get(entry.getKey());
+            sales.add(entry.getValue().toSales(entry.getKey(), barcode));
+        }
+        return new SalesReport.Period(start, end, sales);
+    }
+}
@@ -0,0 +1,20 @@
+package de.waldorfaugsburg.barista.sales;
+
+import java.util.List;
+import java.util.Map;
+
+// Body of GET /sales and content of the sales snapshot, periods are ordered from oldest to newest
+public record SalesReport(long generatedAt, List<LaneSales> lanes) {
+
+    public record LaneSales(String lane, Period total, List<Period> hours, List<Period> days) {
+    }
+
+    // End is exclusive, the total period ends at Long.MAX_VALUE
+    public record Period(long start, long end, List<ProductSales> products) {
+    }
+
+    // Barcode is taken from the current configuration, -1 if the product is not configured anymore
+    public record ProductSales(int productId, long barcode, long vends, long freeVends, double revenue, long cancels,
+                               Map<String, Long> cancelReasons) {
+    }
+}
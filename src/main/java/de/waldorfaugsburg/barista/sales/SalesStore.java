@@ -0,0 +1,111 @@
+package de.waldorfaugsburg.barista.sales;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.configuration.ConfigurationSnapshot;
+import de.waldorfaugsburg.barista.lane.Lane;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Writes the sales of all lanes to disk periodically and hands the last snapshot to the lanes on startup
+@Slf4j
+public final class SalesStore implements AutoCloseable {
+
+    private final BaristaApplication application;
+    private final Path path;
+    private final Gson gson = new Gson();
+    private final Map<String, SalesReport.LaneSales> restoredLanes = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "sales-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SalesStore(final BaristaApplication application, final BaristaConfiguration.SalesConfiguration configuration) throws IOException {
+        this.application = application;
+        this.path = Path.of(configuration.getPath());
+
+        if (Files.exists(path)) {
+            try (final Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                final SalesReport report = gson.fromJson(reader, SalesReport.class);
+                if (report != null && report.lanes() != null) {
+                    for (final SalesReport.LaneSales lane : report.lanes()) {
+                        restoredLanes.put(lane.lane(), lane);
+                    }
+                }
+            } catch (final JsonParseException e) {
+                log.error("Ignoring unreadable sales snapshot '{}'", path, e);
+            }
+        }
+        log.info("Sales store recovered {} lane(s)", restoredLanes.size());
+
+        final long interval = configuration.getSnapshotIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::snapshot, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        snapshot();
+    }
+
+    // Called once per lane before it starts selling, the entry stays until the lane is registered with the application
+    public synchronized void restore(final Lane lane) {
+        final SalesReport.LaneSales sales = restoredLanes.get(lane.getName());
+        if (sales != null) {
+            lane.getSales().restore(sales);
+        }
+    }
+
+    // Linear in the number of products and retained periods
+    public SalesReport createReport() {
+        final ConfigurationSnapshot configuration = application.getSnapshot();
+        final List<SalesReport.LaneSales> lanes = new ArrayList<>();
+        final Set<String> registeredLanes = new HashSet<>();
+        for (final Lane lane : application.getLanes()) {
+            registeredLanes.add(lane.getName());
+            final ConfigurationSnapshot.LaneSnapshot laneConfiguration = configuration.getLane(lane.getName());
+            lanes.add(lane.getSales().report(laneConfiguration == null ? null : laneConfiguration.products()));
+        }
+
+        // Lanes which are not (yet) registered in this run are kept as they were
+        synchronized (this) {
+            for (final Map.Entry<String, SalesReport.LaneSales> entry : restoredLanes.entrySet()) {
+                if (!registeredLanes.contains(entry.getKey())) {
+                    lanes.add(entry.getValue());
+                }
+            }
+        }
+        return new SalesReport(System.currentTimeMillis(), lanes);
+    }
+
+    private synchronized void snapshot() {
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (final Writer writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+                gson.toJson(createReport(), writer);
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            log.error("An error occurred while writing sales snapshot '{}'", path, e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package de.waldorfaugsburg.barista.simulation;
+
+import de.waldorfaugsburg.barista.BaristaApplication;
+import de.waldorfaugsburg.barista.chip.ChipDeduplicator;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.lane.Lane;
+import de.waldorfaugsburg.barista.metrics.LatencyHistogram;
+import de.waldorfaugsburg.barista.metrics.Metrics;
+import de.waldorfaugsburg.barista.metrics.Outcome;
+import de.waldorfaugsburg.barista.metrics.Stage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Replays vend cycles against the simulated hardware, e.g. "LoadDriver simulation.json 5000"
+@Slf4j
+public final class LoadDriver {
+
+    private static final long POLL_MILLIS = 100;
+
+    public static void main(final String[] args) throws Exception {
+        final String configurationPath = args.length > 0 ? args[0] : "config.json";
+        final int cycles = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        final BaristaConfiguration configuration = BaristaApplication.loadConfiguration(configurationPath);
+        if (!configuration.getSimulation().isEnabled()) {
+            log.error("Simulation must be enabled in '{}' to run the load driver", configurationPath);
+            System.exit(1);
+            return;
+        }
+
+        final List<String> chips = configuration.getSimulation().getChips();
+        if (chips.isEmpty()) {
+            log.error("No simulated chips configured in '{}'", configurationPath);
+            System.exit(1);
+            return;
+        }
+
+        final BaristaApplication application = new BaristaApplication();
+        application.enable(configuration);
+
+        // The load driver exercises the first lane only
+        final Lane lane = application.getLanes().get(0);
+        final SimulatedChipSource chipSource = (SimulatedChipSource) lane.getChipSource();
+        final Metrics metrics = lane.getMetrics();
+
+        log.info("Replaying {} vend cycle(s)...", cycles);
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < cycles; i++) {
+            chipSource.offer(chips.get(i % chips.size()));
+        }
+
+        long completed;
+        while ((completed = countCompleted(lane)) < cycles) {
+            Thread.sleep(POLL_MILLIS);
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        final double seconds = elapsedNanos / 1_000_000_000D;
+        log.info("Completed {} vend cycle(s) in {}s ({} vends/s)", completed, String.format("%.2f", seconds), String.format("%.2f", completed / seconds));
+        for (final Outcome outcome : Outcome.values()) {
+            log.info("  {}: {}", outcome.name(), metrics.getCount(outcome));
+        }
+        log.info("  SUPPRESSED: {}", countSuppressed(lane));
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = metrics.getHistogram(stage);
+            log.info("  {} p50={}ms p95={}ms p99={}ms (n={})", stage.name(),
+                    toMillis(histogram.getQuantileNanos(0.5)), toMillis(histogram.getQuantileNanos(0.95)),
+                    toMillis(histogram.getQuantileNanos(0.99)), histogram.getCount());
+        }
+
+        application.disable();
+        System.exit(0);
+    }
+
+    // Repeated chips within the deduplication window never reach the payment flow but still end their cycle
+    private static long countCompleted(final Lane lane) {
+        long completed = countSuppressed(lane);
+        for (final Outcome outcome : Outcome.values()) {
+            completed += lane.getMetrics().getCount(outcome);
+        }
+        return completed;
+    }
+
+    private static long countSuppressed(final Lane lane) {
+        final ChipDeduplicator.Statistics statistics = lane.getPaymentProcessor().getDeduplicationStatistics();
+        return statistics.suppressedPupilScans() + statistics.suppressedServiceScans();
+    }
+
+    private static double toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000D;
+    }
+}
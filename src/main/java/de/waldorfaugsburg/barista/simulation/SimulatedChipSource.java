@@ -0,0 +1,41 @@
+package de.waldorfaugsburg.barista.simulation;
+
+import de.waldorfaugsburg.barista.chip.ChipSource;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class SimulatedChipSource implements ChipSource {
+
+    private final BlockingQueue<String> chips = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public SimulatedChipSource(final BaristaConfiguration.SimulationConfiguration configuration) {
+        final List<String> scriptedChips = configuration.getChips();
+        if (configuration.getChipIntervalMillis() > 0 && !scriptedChips.isEmpty()) {
+            final AtomicInteger index = new AtomicInteger();
+            scheduler.scheduleAtFixedRate(() -> offer(scriptedChips.get(index.getAndIncrement() % scriptedChips.size())),
+                    configuration.getChipIntervalMillis(), configuration.getChipIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void offer(final String chipId) {
+        chips.add(chipId);
+    }
+
+    @Override
+    public String awaitChip() throws InterruptedException {
+        return chips.take();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
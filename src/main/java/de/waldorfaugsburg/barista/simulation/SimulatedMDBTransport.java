@@ -0,0 +1,127 @@
+package de.waldorfaugsburg.barista.simulation;
+
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.mdb.MDBTransport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Scripted cashless device answering the commands sent by MDBInterface
+@Slf4j
+public final class SimulatedMDBTransport implements MDBTransport {
+
+    private static final int INVALID_PRODUCT_ID = 9999;
+
+    private final BaristaConfiguration.SimulationConfiguration configuration;
+    private final List<Integer> productIds;
+
+    // Recreated on every open so that the watchdog can reconnect
+    private volatile ScheduledExecutorService scheduler;
+    private volatile Consumer<byte[]> receiver;
+    private ScheduledFuture<?> pendingSelection;
+    private volatile boolean open;
+
+    public SimulatedMDBTransport(final BaristaConfiguration.SimulationConfiguration configuration, final List<Integer> productIds) {
+        this.configuration = configuration;
+        this.productIds = List.copyOf(productIds);
+    }
+
+    @Override
+    public void open(final Consumer<byte[]> receiver) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.receiver = receiver;
+        this.open = true;
+    }
+
+    @Override
+    public void writeLines(final List<String> lines) {
+        for (final String line : lines) {
+            scheduler.execute(() -> handleCommand(line.split(",")));
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public String getName() {
+        return "simulator";
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void handleCommand(final String[] command) {
+        switch (command[0]) {
+            case "V" -> respond("v,4.0.0,SIMULATOR");
+            case "C" -> {
+                if (command.length < 2) return;
+
+                switch (command[1]) {
+                    case "1", "STOP" -> {
+                        cancelSelection();
+                        respond("c,STATUS,ENABLED");
+                    }
+                    case "START" -> {
+                        cancelSelection();
+                        respond("c,STATUS,IDLE");
+                        scheduleSelection();
+                    }
+                    case "VEND" -> respond("c,STATUS,IDLE");
+                    default -> respond("c,ERR,\"" + String.join(",", command) + "\"");
+                }
+            }
+            default -> log.warn("Simulator received unknown command: {}", String.join(",", command));
+        }
+    }
+
+    private void scheduleSelection() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < configuration.getSelectionTimeoutRate()) return;
+
+        final int productId;
+        if (productIds.isEmpty() || random.nextDouble() < configuration.getInvalidProductRate()) {
+            productId = INVALID_PRODUCT_ID;
+        } else {
+            productId = productIds.get(random.nextInt(productIds.size()));
+        }
+
+        pendingSelection = scheduler.schedule(() -> respond("c,STATUS,VEND," + configuration.getPrice() + "," + productId),
+                configuration.getSelectionDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelSelection() {
+        if (pendingSelection != null) {
+            pendingSelection.cancel(false);
+            pendingSelection = null;
+        }
+    }
+
+    private void respond(final String line) {
+        if (!open) return;
+
+        // Deliver each frame in two parts like a serial port under load would
+        final byte[] data = (line + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        final int split = data.length / 2;
+        final byte[] head = new byte[split];
+        final byte[] tail = new byte[data.length - split];
+        System.arraycopy(data, 0, head, 0, split);
+        System.arraycopy(data, split, tail, 0, tail.length);
+        receiver.accept(head);
+        receiver.accept(tail);
+    }
+}
@@ -0,0 +1,40 @@
+package de.waldorfaugsburg.barista.simulation;
+
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.mensamax.MensaMaxGateway;
+import de.waldorfaugsburg.barista.mensamax.TransactionException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class SimulatedMensaMaxGateway implements MensaMaxGateway {
+
+    private final BaristaConfiguration.SimulationConfiguration configuration;
+
+    public SimulatedMensaMaxGateway(final BaristaConfiguration.SimulationConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public void transaction(final String chipId, final String kiosk, final long barcode) throws TransactionException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long latencyMillis = configuration.getTransactionLatencyMillis();
+        if (configuration.getTransactionLatencyJitterMillis() > 0) {
+            latencyMillis += random.nextLong(configuration.getTransactionLatencyJitterMillis() + 1);
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionException(null, "Simulated transaction was interrupted", e);
+        }
+
+        if (random.nextDouble() < configuration.getTransportErrorRate()) {
+            throw new TransactionException(null, "Simulated transport error");
+        }
+        if (random.nextDouble() < configuration.getErrorRate() && !configuration.getErrorCodes().isEmpty()) {
+            final String code = configuration.getErrorCodes().get(random.nextInt(configuration.getErrorCodes().size()));
+            throw new TransactionException(code, "Simulated error");
+        }
+    }
+}
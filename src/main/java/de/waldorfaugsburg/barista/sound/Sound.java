@@ -2,29 +2,35 @@ package de.waldorfaugsburg.barista.sound;
 
 public enum Sound {
 
-    ACCOUNT_OVERDRAWN(100_000),
-    ACCOUNT_DAILY_LIMIT(100_000),
-    INVALID_CHIP(100_000),
-    INVALID_PRODUCT(100_000),
-    NO_STOCK(100_000),
-    RESTRICTED(100_000),
-    SERVICE(20_000),
-    START(20_000),
-    LASER(20_000),
-    WHISTLE(20_000),
-    TIMEOUT(20_000),
-    UNKNOWN_ERROR(100_000);
+    ACCOUNT_OVERDRAWN(100_000, 2),
+    ACCOUNT_DAILY_LIMIT(100_000, 2),
+    INVALID_CHIP(100_000, 2),
+    INVALID_PRODUCT(100_000, 2),
+    NO_STOCK(100_000, 2),
+    RESTRICTED(100_000, 2),
+    SERVICE(20_000, 0),
+    START(20_000, 0),
+    LASER(20_000, 0),
+    WHISTLE(20_000, 0),
+    TIMEOUT(20_000, 1),
+    UNKNOWN_ERROR(100_000, 2);
 
     private final int volume;
+    private final int priority;
 
-    Sound(final int volume) {
+    Sound(final int volume, final int priority) {
         this.volume = volume;
+        this.priority = priority;
     }
 
     public int getVolume() {
         return volume;
     }
 
+    public int getPriority() {
+        return priority;
+    }
+
     public static Sound findByName(final String soundName) {
         for (final Sound sound : values()) {
             if (sound.name().equalsIgnoreCase(soundName))
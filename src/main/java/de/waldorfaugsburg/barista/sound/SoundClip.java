@@ -0,0 +1,4 @@
+package de.waldorfaugsburg.barista.sound;
+
+public record SoundClip(Sound sound, byte[] data) {
+}
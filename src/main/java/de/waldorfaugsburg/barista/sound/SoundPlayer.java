@@ -1,33 +1,257 @@
 package de.waldorfaugsburg.barista.sound;
 
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import de.waldorfaugsburg.barista.event.EventRing;
+import de.waldorfaugsburg.barista.event.EventType;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
-public final class SoundPlayer {
+public final class SoundPlayer implements AutoCloseable {
 
-    private final ExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    // Raw output of mpg123 in its native byte order
+    private static final AudioFormat FORMAT = new AudioFormat(44_100, 16, 2, true, ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
 
-    public void play(final Sound sound) {
-        executorService.submit(() -> {
-            try {
-                final String command = "mpg123 -f -" + sound.getVolume() + " sound/" + sound.name() + ".mp3";
-                final String[] commandAndArgs = new String[]{"/bin/sh", "-c", command};
-                final Process process = Runtime.getRuntime().exec(commandAndArgs);
-                process.waitFor();
-
-                final int exitValue = process.exitValue();
-                if (exitValue != 0) {
-                    log.error("Player exit value was: " + exitValue);
+    // About 20ms of audio, the granularity in which playback can be preempted
+    private static final int CHUNK_SIZE = 4096;
+
+    private final EventRing eventRing;
+    private final boolean enabled;
+    private final long maxQueueAgeNanos;
+    private final Map<Sound, SoundClip> clips = new EnumMap<>(Sound.class);
+    private final SourceDataLine line;
+
+    private final PriorityBlockingQueue<SoundRequest> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread playbackThread;
+    private volatile SoundRequest playingRequest;
+    private volatile SoundRequest preemptedRequest;
+    private volatile Process playingProcess;
+
+    private final LongAdder playedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder preemptedCount = new LongAdder();
+    private final LongAdder firstAudioNanos = new LongAdder();
+    private final AtomicLong maxFirstAudioNanos = new AtomicLong();
+
+    public SoundPlayer(final BaristaConfiguration.SoundConfiguration configuration, final EventRing eventRing) {
+        this.eventRing = eventRing;
+        this.enabled = configuration.isEnabled();
+        this.maxQueueAgeNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getMaxQueueAgeMillis());
+        this.line = enabled ? openLine() : null;
+        if (line != null) {
+            for (final Sound sound : Sound.values()) {
+                final SoundClip clip = decode(sound);
+                if (clip != null) {
+                    clips.put(sound, clip);
                 }
+            }
+            log.info("Decoded {} of {} sound(s) into memory", clips.size(), Sound.values().length);
+        }
+
+        this.playbackThread = new Thread(this::runPlayback, "sound-player");
+        playbackThread.start();
+    }
+
+    @Override
+    public void close() {
+        playbackThread.interrupt();
+        final Process process = playingProcess;
+        if (process != null) {
+            process.destroy();
+        }
+        if (line != null) {
+            line.close();
+        }
+    }
+
+    public CompletableFuture<Long> play(final Sound sound) {
+        return play(null, sound);
+    }
+
+    // Lanes share the speaker, but a sound only replaces or absorbs sounds of its own lane
+    // Completes with the nano time of the first audio, a sound which is never played never completes
+    public synchronized CompletableFuture<Long> play(final String lane, final Sound sound) {
+        if (!enabled) return new CompletableFuture<>();
+
+        // The same sound is already waiting to be played for this lane
+        for (final SoundRequest queuedRequest : queue) {
+            if (queuedRequest.sound() == sound && Objects.equals(queuedRequest.lane(), lane)) {
+                coalescedCount.increment();
+                return queuedRequest.started();
+            }
+        }
+
+        // Cut off less important feedback, e.g. START when the payment already failed
+        final SoundRequest currentRequest = playingRequest;
+        if (currentRequest != null && Objects.equals(currentRequest.lane(), lane)
+                && currentRequest.sound().getPriority() < sound.getPriority()) {
+            preemptedRequest = currentRequest;
+            preemptedCount.increment();
 
+            final Process process = playingProcess;
+            if (process != null) {
                 process.destroy();
-            } catch (final IOException | InterruptedException e) {
-                log.error("An error occurred while playing sound '{}'", sound.name(), e);
             }
-        });
+        }
+
+        final SoundRequest request = new SoundRequest(lane, sound, sequence.getAndIncrement(), System.nanoTime(), new CompletableFuture<>());
+        queue.add(request);
+        return request.started();
+    }
+
+    public Statistics getStatistics() {
+        final long played = playedCount.sum();
+        return new Statistics(queue.size(), played, coalescedCount.sum(), droppedCount.sum(), preemptedCount.sum(),
+                played == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(firstAudioNanos.sum() / played),
+                TimeUnit.NANOSECONDS.toMillis(maxFirstAudioNanos.get()));
+    }
+
+    private void runPlayback() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final SoundRequest request;
+            try {
+                request = queue.take();
+            } catch (final InterruptedException e) {
+                break;
+            }
+
+            if (System.nanoTime() - request.enqueuedNanos() > maxQueueAgeNanos) {
+                droppedCount.increment();
+                log.info("Dropping stale sound '{}'", request.sound().name());
+                continue;
+            }
+
+            playingRequest = request;
+            try {
+                final SoundClip clip = clips.get(request.sound());
+                if (clip != null) {
+                    playClip(request, clip);
+                } else {
+                    playProcess(request);
+                }
+            } catch (final Exception e) {
+                log.error("An error occurred while playing sound '{}'", request.sound().name(), e);
+            } finally {
+                playingRequest = null;
+            }
+        }
+    }
+
+    private void playClip(final SoundRequest request, final SoundClip clip) {
+        recordFirstAudio(request);
+
+        final byte[] data = clip.data();
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            if (preemptedRequest == request) {
+                line.flush();
+                return;
+            }
+            line.write(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+        }
+        line.drain();
+    }
+
+    private void playProcess(final SoundRequest request) throws IOException, InterruptedException {
+        final String command = "mpg123 -f -" + request.sound().getVolume() + " " + getPath(request.sound());
+        final String[] commandAndArgs = new String[]{"/bin/sh", "-c", command};
+        final Process process = Runtime.getRuntime().exec(commandAndArgs);
+        playingProcess = process;
+        recordFirstAudio(request);
+
+        try {
+            process.waitFor();
+
+            final int exitValue = process.exitValue();
+            if (exitValue != 0 && preemptedRequest != request) {
+                log.error("Player exit value was: " + exitValue);
+            }
+        } finally {
+            playingProcess = null;
+            process.destroy();
+        }
+    }
+
+    private void recordFirstAudio(final SoundRequest request) {
+        final long startedNanos = System.nanoTime();
+        request.started().complete(startedNanos);
+
+        final long nanos = startedNanos - request.enqueuedNanos();
+        playedCount.increment();
+        firstAudioNanos.add(nanos);
+        maxFirstAudioNanos.accumulateAndGet(nanos, Math::max);
+        eventRing.publish(EventType.SOUND_PLAYED, request.lane(), request.sound().name());
+    }
+
+    private SourceDataLine openLine() {
+        try {
+            final SourceDataLine line = AudioSystem.getSourceDataLine(FORMAT);
+            line.open(FORMAT);
+            line.start();
+            return line;
+        } catch (final LineUnavailableException | IllegalArgumentException e) {
+            log.warn("No audio line available, falling back to mpg123 playback", e);
+            return null;
+        }
+    }
+
+    private SoundClip decode(final Sound sound) {
+        try {
+            // Volume is applied while decoding so that playback only copies samples
+            final Process process = new ProcessBuilder("mpg123", "-q", "-s", "-f", "-" + sound.getVolume(),
+                    "-r", Integer.toString((int) FORMAT.getSampleRate()), "--stereo", "-e", "s16", getPath(sound))
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+
+            final byte[] data;
+            try (final InputStream inputStream = process.getInputStream()) {
+                data = inputStream.readAllBytes();
+            }
+
+            final int exitValue = process.waitFor();
+            if (exitValue != 0) {
+                log.error("Decoder exit value for sound '{}' was: {}", sound.name(), exitValue);
+                return null;
+            }
+            return new SoundClip(sound, data);
+        } catch (final IOException e) {
+            log.error("An error occurred while decoding sound '{}'", sound.name(), e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private String getPath(final Sound sound) {
+        return "sound/" + sound.name() + ".mp3";
+    }
+
+    private record SoundRequest(String lane, Sound sound, long sequence, long enqueuedNanos, CompletableFuture<Long> started) implements Comparable<SoundRequest> {
+
+        @Override
+        public int compareTo(final SoundRequest other) {
+            final int priority = Integer.compare(other.sound.getPriority(), sound.getPriority());
+            return priority != 0 ? priority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public record Statistics(int queueDepth, long played, long coalesced, long dropped, long preempted,
+                             long averageFirstAudioMillis, long maxFirstAudioMillis) {
     }
 }
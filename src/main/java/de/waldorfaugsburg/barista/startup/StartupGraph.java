@@ -0,0 +1,110 @@
+package de.waldorfaugsburg.barista.startup;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Starts every subsystem as soon as its dependencies are ready, independent subsystems start concurrently
+@Slf4j
+public final class StartupGraph {
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "startup-" + threadCount.incrementAndGet()));
+    private final Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+    private final Map<String, Subsystem> subsystems = new LinkedHashMap<>();
+
+    // Dependencies have to be added before their dependents
+    public synchronized void add(final String name, final List<String> dependencies, final Task task) {
+        final CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencies.size()];
+        for (int i = 0; i < dependencies.size(); i++) {
+            dependencyFutures[i] = futures.get(dependencies.get(i));
+            if (dependencyFutures[i] == null) {
+                throw new IllegalArgumentException("Unknown dependency '" + dependencies.get(i) + "' of subsystem '" + name + "'");
+            }
+        }
+
+        subsystems.put(name, new Subsystem(name, dependencies, SubsystemState.PENDING, 0, null));
+        futures.put(name, CompletableFuture.allOf(dependencyFutures).handleAsync((ignored, dependencyThrowable) -> {
+            if (dependencyThrowable != null) {
+                update(name, SubsystemState.FAILED, 0, "A dependency failed");
+                throw new IllegalStateException("A dependency of subsystem '" + name + "' failed");
+            }
+
+            update(name, SubsystemState.STARTING, 0, null);
+            final long startNanos = System.nanoTime();
+            try {
+                task.start();
+            } catch (final Exception e) {
+                update(name, SubsystemState.FAILED, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), e.toString());
+                log.error("An error occurred while starting subsystem '{}'", name, e);
+                throw new IllegalStateException("Subsystem '" + name + "' failed", e);
+            }
+
+            final long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            update(name, SubsystemState.READY, startupMillis, null);
+            log.info("Subsystem '{}' started in {}ms", name, startupMillis);
+            return null;
+        }, executor));
+    }
+
+    // Waits for every subsystem and fails if any of them did not start
+    public void await() throws Exception {
+        final CompletableFuture<?>[] allFutures;
+        synchronized (this) {
+            allFutures = futures.values().toArray(new CompletableFuture<?>[0]);
+        }
+        try {
+            CompletableFuture.allOf(allFutures).exceptionally(throwable -> null).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        final List<String> failed = new ArrayList<>();
+        for (final Subsystem subsystem : getSubsystems()) {
+            if (subsystem.state() == SubsystemState.FAILED) {
+                failed.add(subsystem.name());
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Subsystem(s) " + failed + " failed to start");
+        }
+    }
+
+    public synchronized List<Subsystem> getSubsystems() {
+        return new ArrayList<>(subsystems.values());
+    }
+
+    public synchronized boolean isReady() {
+        for (final Subsystem subsystem : subsystems.values()) {
+            if (subsystem.state() != SubsystemState.READY) return false;
+        }
+        return true;
+    }
+
+    public synchronized boolean hasFailed() {
+        for (final Subsystem subsystem : subsystems.values()) {
+            if (subsystem.state() == SubsystemState.FAILED) return true;
+        }
+        return false;
+    }
+
+    private synchronized void update(final String name, final SubsystemState state, final long startupMillis, final String error) {
+        final Subsystem subsystem = subsystems.get(name);
+        subsystems.put(name, new Subsystem(name, subsystem.dependencies(), state, startupMillis, error));
+    }
+
+    @FunctionalInterface
+    public interface Task {
+
+        void start() throws Exception;
+    }
+}
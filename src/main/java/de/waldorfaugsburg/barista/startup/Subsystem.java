@@ -0,0 +1,6 @@
+package de.waldorfaugsburg.barista.startup;
+
+import java.util.List;
+
+public record Subsystem(String name, List<String> dependencies, SubsystemState state, long startupMillis, String error) {
+}
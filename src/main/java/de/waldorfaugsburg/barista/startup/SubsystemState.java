@@ -0,0 +1,9 @@
+package de.waldorfaugsburg.barista.startup;
+
+public enum SubsystemState {
+
+    PENDING,
+    STARTING,
+    READY,
+    FAILED
+}
@@ -0,0 +1,152 @@
+package de.waldorfaugsburg.barista.stock;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Products left in the slots of every lane, products without an entry are not tracked and never sold out
+@Slf4j
+public final class StockTable implements AutoCloseable {
+
+    private static final Type FILE_TYPE = new TypeToken<Map<String, Map<Integer, Integer>>>() {
+    }.getType();
+
+    private final BaristaConfiguration.StockConfiguration configuration;
+    private final Path path;
+    private final Gson gson = new Gson();
+    private final Map<String, Map<Integer, AtomicInteger>> lanes = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "stock-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StockTable(final BaristaConfiguration.StockConfiguration configuration) throws IOException {
+        this.configuration = configuration;
+        this.path = Path.of(configuration.getPath());
+
+        if (Files.exists(path)) {
+            try (final Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                final Map<String, Map<Integer, Integer>> stored = gson.fromJson(reader, FILE_TYPE);
+                if (stored != null) {
+                    stored.forEach((lane, products) -> products.forEach((productId, quantity) -> getProducts(lane).put(productId, new AtomicInteger(quantity))));
+                }
+            } catch (final JsonParseException e) {
+                log.error("Ignoring unreadable stock file '{}', all products are untracked", path, e);
+            }
+        }
+        log.info("Stock table tracks {} product(s)", lanes.values().stream().mapToInt(Map::size).sum());
+
+        // Changes are coalesced so that a burst of vends results in a single write
+        final long interval = configuration.getFlushMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    public boolean isSoldOut(final String lane, final int productId) {
+        final AtomicInteger quantity = getProducts(lane).get(productId);
+        return quantity != null && quantity.get() <= 0;
+    }
+
+    // Called once the machine was told to dispense, never goes below zero
+    public void decrement(final String lane, final int productId) {
+        final AtomicInteger quantity = getProducts(lane).get(productId);
+        if (quantity == null) return;
+
+        final int left = quantity.updateAndGet(value -> Math.max(value - 1, 0));
+        dirty.set(true);
+        if (left == 0) {
+            log.warn("[{}] Product '{}' is sold out", lane, productId);
+        } else if (left == configuration.getLowThreshold()) {
+            log.warn("[{}] Only {} of product '{}' left", lane, left, productId);
+        }
+    }
+
+    // A null quantity stops tracking the product
+    public void set(final String lane, final int productId, final Integer quantity) {
+        if (quantity == null) {
+            getProducts(lane).remove(productId);
+        } else {
+            getProducts(lane).computeIfAbsent(productId, key -> new AtomicInteger()).set(quantity);
+        }
+        dirty.set(true);
+        log.info("[{}] Stock of product '{}' set to {}", lane, productId, quantity == null ? "untracked" : quantity);
+    }
+
+    public List<StockLevel> getLevels(final String lane) {
+        return collect(lane, Integer.MAX_VALUE);
+    }
+
+    public List<StockLevel> getLowLevels(final String lane) {
+        return collect(lane, configuration.getLowThreshold());
+    }
+
+    private List<StockLevel> collect(final String lane, final int maxQuantity) {
+        final List<StockLevel> levels = new ArrayList<>();
+        for (final Map.Entry<Integer, AtomicInteger> entry : new TreeMap<>(getProducts(lane)).entrySet()) {
+            final int quantity = entry.getValue().get();
+            if (quantity <= maxQuantity) {
+                levels.add(new StockLevel(entry.getKey(), quantity));
+            }
+        }
+        return levels;
+    }
+
+    private Map<Integer, AtomicInteger> getProducts(final String lane) {
+        return lanes.computeIfAbsent(lane, key -> new ConcurrentHashMap<>());
+    }
+
+    private synchronized void flush() {
+        if (!dirty.getAndSet(false)) return;
+
+        final Map<String, Map<Integer, Integer>> stored = new TreeMap<>();
+        lanes.forEach((lane, products) -> {
+            final Map<Integer, Integer> quantities = new TreeMap<>();
+            products.forEach((productId, quantity) -> quantities.put(productId, quantity.get()));
+            if (!quantities.isEmpty()) {
+                stored.put(lane, quantities);
+            }
+        });
+
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (final Writer writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+                gson.toJson(stored, FILE_TYPE, writer);
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            dirty.set(true);
+            log.error("An error occurred while writing stock file '{}'", path, e);
+        }
+    }
+
+    public record StockLevel(int productId, int quantity) {
+    }
+}
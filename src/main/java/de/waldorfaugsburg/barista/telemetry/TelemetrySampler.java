@@ -0,0 +1,142 @@
+package de.waldorfaugsburg.barista.telemetry;
+
+import de.waldorfaugsburg.barista.configuration.BaristaConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+@Slf4j
+public final class TelemetrySampler implements AutoCloseable {
+
+    private static final Path THERMAL_ZONE_PATH = Path.of("/sys/class/thermal/thermal_zone0/temp");
+    private static final Path MEMORY_INFO_PATH = Path.of("/proc/meminfo");
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    private final AtomicReference<TelemetrySnapshot> latestSnapshot = new AtomicReference<>();
+    private final AtomicReferenceArray<TelemetrySnapshot> history;
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    private boolean thermalZoneAvailable = Files.isReadable(THERMAL_ZONE_PATH);
+
+    public TelemetrySampler(final BaristaConfiguration.TelemetryConfiguration configuration) {
+        this.history = new AtomicReferenceArray<>(configuration.getHistorySize());
+
+        // Take the first sample right away so that requests never see an empty snapshot
+        sample();
+        scheduler.scheduleWithFixedDelay(this::sample, configuration.getIntervalMillis(), configuration.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public TelemetrySnapshot getSnapshot() {
+        return latestSnapshot.get();
+    }
+
+    public List<TelemetrySnapshot> getHistory() {
+        final long count = sampleCount.get();
+        final int size = (int) Math.min(count, history.length());
+
+        final List<TelemetrySnapshot> snapshots = new ArrayList<>(size);
+        for (long i = count - size; i < count; i++) {
+            final TelemetrySnapshot snapshot = history.get((int) (i % history.length()));
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    private void sample() {
+        try {
+            final long[] memory = readMemory();
+            final Runtime runtime = Runtime.getRuntime();
+            final TelemetrySnapshot snapshot = new TelemetrySnapshot(System.currentTimeMillis(), readTemperature(),
+                    operatingSystem.getSystemLoadAverage(), memory[0], memory[1], runtime.totalMemory() - runtime.freeMemory());
+
+            latestSnapshot.set(snapshot);
+            if (history.length() > 0) {
+                history.set((int) (sampleCount.get() % history.length()), snapshot);
+                sampleCount.incrementAndGet();
+            }
+        } catch (final Exception e) {
+            log.error("An error occurred while sampling telemetry", e);
+        }
+    }
+
+    private double readTemperature() {
+        if (thermalZoneAvailable) {
+            try {
+                // Value is given in millidegrees celsius
+                return Long.parseLong(Files.readString(THERMAL_ZONE_PATH).trim()) / 1000D;
+            } catch (final IOException | NumberFormatException e) {
+                log.warn("Could not read thermal zone, falling back to vcgencmd", e);
+                thermalZoneAvailable = false;
+            }
+        }
+        return readTemperatureFromVcgencmd();
+    }
+
+    private double readTemperatureFromVcgencmd() {
+        try {
+            final Process process = Runtime.getRuntime().exec(new String[]{"vcgencmd", "measure_temp"});
+            process.waitFor();
+
+            final int exitValue = process.exitValue();
+            if (exitValue != 0) {
+                throw new IllegalArgumentException("process exited with status " + exitValue);
+            }
+
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("temp")) {
+                    line = line.substring(5, line.length() - 2);
+                    return Double.parseDouble(line);
+                }
+            }
+        } catch (final IOException | InterruptedException e) {
+            log.error("An error occurred while reading cpu temperature", e);
+        }
+        return -1;
+    }
+
+    private long[] readMemory() {
+        final long[] memory = {-1, -1};
+        try (final BufferedReader reader = Files.newBufferedReader(MEMORY_INFO_PATH)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("MemTotal:")) {
+                    memory[0] = parseKilobytes(line);
+                } else if (line.startsWith("MemAvailable:")) {
+                    memory[1] = parseKilobytes(line);
+                }
+            }
+        } catch (final IOException e) {
+            log.debug("Could not read memory information", e);
+        }
+        return memory;
+    }
+
+    private long parseKilobytes(final String line) {
+        final String[] parts = line.trim().split("\\s+");
+        return Long.parseLong(parts[1]) * 1024;
+    }
+}
@@ -0,0 +1,5 @@
+package de.waldorfaugsburg.barista.telemetry;
+
+public record TelemetrySnapshot(long timestamp, double temperature, double loadAverage, long memoryTotal,
+                                long memoryAvailable, long heapUsed) {
+}